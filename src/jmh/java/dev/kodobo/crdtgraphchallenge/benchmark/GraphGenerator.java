@@ -0,0 +1,64 @@
+package dev.kodobo.crdtgraphchallenge.benchmark;
+
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.service.GraphService;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+
+// Builds synthetic replicas for the benchmarks. Nodes are labelled "n0" to "n<nodes - 1>" and every node gets
+// roughly averageDegree neighbours picked at random, so the graphs are a single low diameter component once they
+// are large enough.
+final class GraphGenerator {
+    static final LocalDateTime START = LocalDateTime.of(2022, 1, 1, 0, 0);
+
+    private GraphGenerator() {
+    }
+
+    static String label(int node) {
+        return "n" + node;
+    }
+
+    static GraphService randomGraph(int nodes, int averageDegree, long seed) {
+        Random random = new Random(seed);
+        GraphService graph = new GraphService(new State());
+        for (int i = 0; i < nodes; i++) {
+            graph.addNode(label(i), START);
+        }
+        // Every pair adds an edge in both directions.
+        long pairs = (long) nodes * averageDegree / 2;
+        for (long i = 0; i < pairs; i++) {
+            graph.addEdgePair(label(random.nextInt(nodes)), label(random.nextInt(nodes)), START.plusSeconds(1));
+        }
+        return graph;
+    }
+
+    // Returns a replica that starts from the given state and then rewrites conflictPercent% of its nodes, while
+    // the original replica rewrites the same nodes concurrently. Half the rewritten nodes are removed on one side
+    // and re-added on the other, the rest have an edge added on one side and removed on the other.
+    static GraphService diverge(GraphService local, int nodes, int conflictPercent, long seed) {
+        Random random = new Random(seed);
+        GraphService remote = new GraphService(new State());
+        remote.mergeWithRemote(local.getState());
+        int conflicts = nodes * conflictPercent / 100;
+        for (int i = 0; i < conflicts; i++) {
+            String label = label(random.nextInt(nodes));
+            String other = label(random.nextInt(nodes));
+            LocalDateTime time = START.plusMinutes(1 + random.nextInt(60));
+            if (random.nextBoolean()) {
+                remote.removeNode(remote.getState().getAddedNode(label), time);
+                local.addNode(label, time.plusSeconds(random.nextInt(3) - 1));
+            } else {
+                remote.addEdgePair(label, other, time);
+                local.removeEdgePair(label, other, time.plusSeconds(random.nextInt(3) - 1));
+            }
+        }
+        return remote;
+    }
+
+    static GraphService copyOf(GraphService graph) {
+        GraphService copy = new GraphService(new State());
+        copy.mergeWithRemote(graph.getState());
+        return copy;
+    }
+}
@@ -0,0 +1,84 @@
+package dev.kodobo.crdtgraphchallenge.benchmark;
+
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.ReadOnlyGraph;
+import dev.kodobo.crdtgraphchallenge.service.GraphService;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Local writes and handing out the resulting graph.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphServiceBenchmark {
+    @Param({"1000", "100000"})
+    public int nodes;
+
+    @Param({"4", "16"})
+    public int averageDegree;
+
+    private GraphService graph;
+    private Random random;
+    private LocalDateTime time;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        graph = GraphGenerator.randomGraph(nodes, averageDegree, 1);
+        random = new Random(2);
+        time = GraphGenerator.START.plusHours(1);
+    }
+
+    private String randomLabel() {
+        return GraphGenerator.label(random.nextInt(nodes));
+    }
+
+    private LocalDateTime nextTime() {
+        time = time.plusNanos(1_000_000);
+        return time;
+    }
+
+    @Benchmark
+    public ReadOnlyGraph getGraph() {
+        return graph.getGraph();
+    }
+
+    @Benchmark
+    public void addEdgePair() {
+        graph.addEdgePair(randomLabel(), randomLabel(), nextTime());
+    }
+
+    @Benchmark
+    public void removeEdgePair() {
+        graph.removeEdgePair(randomLabel(), randomLabel(), nextTime());
+    }
+
+    @Benchmark
+    public List<Node> getConnectedNodes() {
+        return graph.getConnectedNodes(randomLabel());
+    }
+
+    // Building the full adjacency map that GET /result serialises, on a snapshot that hasn't built it yet.
+    @State(Scope.Thread)
+    public static class FreshSnapshot {
+        ReadOnlyGraph snapshot;
+
+        @Setup(Level.Invocation)
+        public void write(GraphServiceBenchmark benchmark) {
+            benchmark.graph.addNode(benchmark.randomLabel(), benchmark.nextTime());
+            snapshot = benchmark.graph.getGraph();
+        }
+    }
+
+    @Benchmark
+    public Map<Node, List<Node>> materialiseAdjacency(FreshSnapshot fresh) {
+        return fresh.snapshot.getGraph();
+    }
+}
@@ -0,0 +1,46 @@
+package dev.kodobo.crdtgraphchallenge.benchmark;
+
+import dev.kodobo.crdtgraphchallenge.service.GraphService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Merging a diverged replica's full state into a local replica. Every invocation merges into a fresh copy of the
+// local replica, since merging the same state twice is a no-op.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+    @Param({"1000", "100000"})
+    public int nodes;
+
+    @Param({"4", "16"})
+    public int averageDegree;
+
+    @Param({"0", "10", "50"})
+    public int conflictPercent;
+
+    private GraphService local;
+    private GraphService remote;
+    private GraphService target;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        local = GraphGenerator.randomGraph(nodes, averageDegree, 1);
+        remote = GraphGenerator.diverge(local, nodes, conflictPercent, 2);
+    }
+
+    @Setup(Level.Invocation)
+    public void freshLocal() {
+        target = GraphGenerator.copyOf(local);
+    }
+
+    @Benchmark
+    public GraphService mergeWithRemote() {
+        target.mergeWithRemote(remote.getState());
+        return target;
+    }
+}
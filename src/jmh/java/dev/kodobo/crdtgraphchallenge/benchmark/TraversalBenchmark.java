@@ -0,0 +1,70 @@
+package dev.kodobo.crdtgraphchallenge.benchmark;
+
+import dev.kodobo.crdtgraphchallenge.model.ReadOnlyGraph;
+import dev.kodobo.crdtgraphchallenge.model.RouteSearch;
+import dev.kodobo.crdtgraphchallenge.model.VisitedNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Queries against a single converged snapshot.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TraversalBenchmark {
+    @Param({"1000", "100000"})
+    public int nodes;
+
+    @Param({"4", "16"})
+    public int averageDegree;
+
+    private ReadOnlyGraph graph;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        graph = GraphGenerator.randomGraph(nodes, averageDegree, 1).getGraph();
+        random = new Random(2);
+    }
+
+    private String randomLabel() {
+        return GraphGenerator.label(random.nextInt(nodes));
+    }
+
+    @Benchmark
+    public List<String> findShortestRoute() {
+        return graph.findShortestRoute(randomLabel(), randomLabel());
+    }
+
+    @Benchmark
+    public List<String> findShortestRouteBidirectional() {
+        return graph.findShortestRoute(randomLabel(), randomLabel(), RouteSearch.BIDIRECTIONAL);
+    }
+
+    @Benchmark
+    public Map<String, VisitedNode> breadthFirstSearch() {
+        return graph.breadthFirstSearch(randomLabel());
+    }
+
+    @Benchmark
+    public Map<String, VisitedNode> parallelBreadthFirstSearch() {
+        return graph.parallelBreadthFirstSearch(randomLabel());
+    }
+
+    @Benchmark
+    public Set<String> depthFirstSearch() {
+        return graph.depthFirstSearch(randomLabel());
+    }
+
+    @Benchmark
+    public boolean hasEdge() {
+        return graph.hasEdge(randomLabel(), randomLabel());
+    }
+}
@@ -2,8 +2,10 @@ package dev.kodobo.crdtgraphchallenge;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class CrdtGraphChallengeApplication {
 
     public static void main(String[] args) {
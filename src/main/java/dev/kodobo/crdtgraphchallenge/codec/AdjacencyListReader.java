@@ -0,0 +1,61 @@
+package dev.kodobo.crdtgraphchallenge.codec;
+
+import dev.kodobo.crdtgraphchallenge.model.GraphBatch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+// Reads graphs written as adjacency lists, a line per node of the form "label: neighbour, neighbour", into batches of
+// writes: each line adds its node and an edge pair to each of its neighbours. A line at a time is all that is ever
+// held, along with the batch being filled, so files of any size can be loaded.
+public class AdjacencyListReader {
+    private final int batchSize;
+
+    public AdjacencyListReader(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public AdjacencyListReader() {
+        this(10_000);
+    }
+
+    // Hands each batch over as soon as it holds batchSize writes, and whatever is left at the end. Returns the number
+    // of nodes read. Blank lines are skipped.
+    public long read(Reader in, Consumer<GraphBatch> sink) throws IOException {
+        BufferedReader lines = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 1 << 16);
+        GraphBatch batch = new GraphBatch();
+        long nodes = 0;
+        long lineNumber = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            String label = (colon < 0 ? line : line.substring(0, colon)).strip();
+            if (label.isEmpty()) {
+                throw new IOException("Line " + lineNumber + " has no node label");
+            }
+            batch.addNode(label);
+            nodes++;
+            if (colon >= 0) {
+                for (String neighbour : line.substring(colon + 1).split(",")) {
+                    String destination = neighbour.strip();
+                    if (!destination.isEmpty()) {
+                        batch.addEdgePair(label, destination);
+                    }
+                }
+            }
+            if (batch.size() >= batchSize) {
+                sink.accept(batch);
+                batch = new GraphBatch();
+            }
+        }
+        if (batch.size() > 0) {
+            sink.accept(batch);
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,297 @@
+package dev.kodobo.crdtgraphchallenge.codec;
+
+import dev.kodobo.crdtgraphchallenge.helpers.FixedIdGenerator;
+import dev.kodobo.crdtgraphchallenge.model.Edge;
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import dev.kodobo.crdtgraphchallenge.model.StateVisitor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/*
+    A compact binary encoding of a State (or a StateDelta) for exchanging between replicas.
+
+    magic "CRDT" | format version | flags | [replica id, version, clock - deltas only] | record* | END
+
+    Each record is a tag followed by its fields. A label is written out in full the first time it is used and from
+    then on by its index in the order labels were first written, so each label is sent once however many elements
+    refer to it. Timestamps are written as the difference to the previous record's timestamp, which keeps them to a
+    couple of bytes as the entries of a state are written in roughly timestamp order. Both directions of an edge pair
+    usually carry the same timestamp, in which case they go out as a single PAIR record. Node UUIDs are not sent at
+    all as they are derived from the label. Everything after the flags can be deflate compressed.
+
+    Records are written and read one at a time, so neither side ever needs the whole payload in memory.
+ */
+public class BinaryStateCodec implements StateReader {
+    public static final String MEDIA_TYPE = "application/x-crdt-state";
+
+    private static final byte[] MAGIC = {'C', 'R', 'D', 'T'};
+    private static final int FORMAT_VERSION = 1;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_DELTA = 1 << 1;
+
+    private static final int NODE_ADDED = 0;
+    private static final int NODE_REMOVED = 1;
+    private static final int EDGE_ADDED = 2;
+    private static final int EDGE_REMOVED = 3;
+    private static final int EDGE_PAIR_ADDED = 4;
+    private static final int EDGE_PAIR_REMOVED = 5;
+    private static final int END = 0xFF;
+
+    private final boolean compress;
+    private final FixedIdGenerator idGenerator = new FixedIdGenerator();
+
+    public BinaryStateCodec(boolean compress) {
+        this.compress = compress;
+    }
+
+    public BinaryStateCodec() {
+        this(true);
+    }
+
+    public void write(State state, OutputStream out) throws IOException {
+        write(state, null, 0, 0, out);
+    }
+
+    public void write(StateDelta delta, OutputStream out) throws IOException {
+        write(delta.getState(), delta.getReplicaId(), delta.getVersion(), delta.getClock(), out);
+    }
+
+    public State readState(InputStream in) throws IOException {
+        State state = new State();
+        read(in, state.asVisitor());
+        return state;
+    }
+
+    public StateDelta readDelta(InputStream in) throws IOException {
+        State state = new State();
+        StateHeader header = read(in, state.asVisitor());
+        return new StateDelta(header.getReplicaId(), header.getVersion(), header.getClock(), state);
+    }
+
+    private void write(State state, String replicaId, long version, long clock, OutputStream target)
+            throws IOException {
+        target.write(MAGIC);
+        target.write(FORMAT_VERSION);
+        target.write((compress ? FLAG_COMPRESSED : 0) | (replicaId != null ? FLAG_DELTA : 0));
+        DeflaterOutputStream deflater = compress
+                ? new DeflaterOutputStream(target, new Deflater(Deflater.BEST_SPEED), 8192)
+                : null;
+        Writer writer = new Writer(state, new BufferedOutputStream(deflater != null ? deflater : target, 8192));
+        if (replicaId != null) {
+            writer.writeString(replicaId);
+            writer.writeVarLong(version);
+            writer.writeVarLong(clock);
+        }
+        try {
+            state.accept(writer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.out.write(END);
+        writer.out.flush();
+        if (deflater != null) {
+            deflater.finish();
+        }
+        target.flush();
+    }
+
+    @Override
+    public StateHeader read(InputStream source, StateVisitor visitor) throws IOException {
+        byte[] magic = source.readNBytes(MAGIC.length);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary CRDT state");
+        }
+        int formatVersion = source.read();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported binary CRDT state version " + formatVersion);
+        }
+        int flags = source.read();
+        InputStream in = new BufferedInputStream(
+                (flags & FLAG_COMPRESSED) != 0 ? new InflaterInputStream(source) : source, 8192);
+
+        StateHeader header = (flags & FLAG_DELTA) != 0
+                ? new StateHeader(readString(in), readVarLong(in), readVarLong(in))
+                : new StateHeader(null, 0, 0);
+        List<String> labels = new ArrayList<>();
+        long timestamp = 0;
+        int tag;
+        while ((tag = readByte(in)) != END) {
+            String first = readLabel(in, labels);
+            String second = tag >= EDGE_ADDED ? readLabel(in, labels) : null;
+            timestamp += zigZagDecode(readVarLong(in));
+            switch (tag) {
+                case NODE_ADDED:
+                    visitor.nodeAdded(new Node(idGenerator.generateId(first), first, timestamp));
+                    break;
+                case NODE_REMOVED:
+                    visitor.nodeRemoved(new Node(idGenerator.generateId(first), first, timestamp));
+                    break;
+                case EDGE_ADDED:
+                    visitor.edgeAdded(new Edge(first, second, timestamp));
+                    break;
+                case EDGE_PAIR_ADDED:
+                    visitor.edgeAdded(new Edge(second, first, timestamp));
+                    visitor.edgeAdded(new Edge(first, second, timestamp));
+                    break;
+                case EDGE_REMOVED:
+                    visitor.edgeRemoved(new Edge(first, second, timestamp));
+                    break;
+                case EDGE_PAIR_REMOVED:
+                    visitor.edgeRemoved(new Edge(second, first, timestamp));
+                    visitor.edgeRemoved(new Edge(first, second, timestamp));
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + tag);
+            }
+        }
+        return header;
+    }
+
+    private static final class Writer implements StateVisitor {
+        private final State state;
+        private final OutputStream out;
+        private final Map<String, Integer> labels = new HashMap<>();
+        // The reverse halves of pairs that have already gone out with their partner.
+        private final Set<Edge> pairedAdded = new HashSet<>();
+        private final Set<Edge> pairedRemoved = new HashSet<>();
+        private long timestamp;
+
+        private Writer(State state, OutputStream out) {
+            this.state = state;
+            this.out = out;
+        }
+
+        @Override
+        public void nodeAdded(Node node) {
+            record(NODE_ADDED, node.getLabel(), null, node.getTimestamp());
+        }
+
+        @Override
+        public void nodeRemoved(Node node) {
+            record(NODE_REMOVED, node.getLabel(), null, node.getTimestamp());
+        }
+
+        @Override
+        public void edgeAdded(Edge edge) {
+            edge(edge, state.getAddedEdge(edge.getDestinationNodeLabel(), edge.getSourceNodeLabel()),
+                    pairedAdded, EDGE_ADDED, EDGE_PAIR_ADDED);
+        }
+
+        @Override
+        public void edgeRemoved(Edge edge) {
+            edge(edge, state.getRemovedEdge(edge.getDestinationNodeLabel(), edge.getSourceNodeLabel()),
+                    pairedRemoved, EDGE_REMOVED, EDGE_PAIR_REMOVED);
+        }
+
+        private void edge(Edge edge, Edge reverse, Set<Edge> paired, int single, int pair) {
+            if (paired.remove(edge)) {
+                return;
+            }
+            boolean isPair = reverse != null && reverse != edge && reverse.getTimestamp() == edge.getTimestamp();
+            if (isPair) {
+                paired.add(reverse);
+            }
+            record(isPair ? pair : single, edge.getSourceNodeLabel(), edge.getDestinationNodeLabel(), edge.getTimestamp());
+        }
+
+        private void record(int tag, String first, String second, long time) {
+            try {
+                out.write(tag);
+                writeLabel(first);
+                if (second != null) {
+                    writeLabel(second);
+                }
+                writeVarLong(zigZagEncode(time - timestamp));
+                timestamp = time;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // 0 introduces a new label, anything else refers back to the (n - 1)th label written.
+        private void writeLabel(String label) throws IOException {
+            Integer index = labels.get(label);
+            if (index != null) {
+                writeVarLong(index + 1);
+            } else {
+                labels.put(label, labels.size());
+                writeVarLong(0);
+                writeString(label);
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+
+    private static String readLabel(InputStream in, List<String> labels) throws IOException {
+        long index = readVarLong(in);
+        if (index == 0) {
+            String label = readString(in);
+            labels.add(label);
+            return label;
+        }
+        if (index < 0 || index > labels.size()) {
+            throw new IOException("Reference to unknown label " + index);
+        }
+        return labels.get((int) index - 1);
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Malformed string length " + length);
+        }
+        byte[] bytes = in.readNBytes((int) length);
+        if (bytes.length != length) {
+            throw new EOFException();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
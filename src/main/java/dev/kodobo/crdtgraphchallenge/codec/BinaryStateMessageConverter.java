@@ -0,0 +1,46 @@
+package dev.kodobo.crdtgraphchallenge.codec;
+
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+// Reads and writes states and deltas sent as BinaryStateCodec.MEDIA_TYPE.
+public class BinaryStateMessageConverter extends AbstractHttpMessageConverter<Object> {
+    private final BinaryStateCodec codec;
+
+    public BinaryStateMessageConverter(BinaryStateCodec codec) {
+        super(MediaType.valueOf(BinaryStateCodec.MEDIA_TYPE));
+        this.codec = codec;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return State.class == clazz || StateDelta.class == clazz;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        try {
+            return StateDelta.class == clazz
+                    ? codec.readDelta(inputMessage.getBody())
+                    : codec.readState(inputMessage.getBody());
+        } catch (IOException e) {
+            throw new HttpMessageNotReadableException("Could not read binary state: " + e.getMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    protected void writeInternal(Object value, HttpOutputMessage outputMessage) throws IOException {
+        if (value instanceof StateDelta) {
+            codec.write((StateDelta) value, outputMessage.getBody());
+        } else {
+            codec.write((State) value, outputMessage.getBody());
+        }
+    }
+}
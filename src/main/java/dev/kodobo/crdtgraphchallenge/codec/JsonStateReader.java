@@ -0,0 +1,129 @@
+package dev.kodobo.crdtgraphchallenge.codec;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import dev.kodobo.crdtgraphchallenge.model.Edge;
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.StateVisitor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+// Walks the JSON form of a State, or of a StateDelta wrapping one, token by token. Only the node or edge currently
+// being read is ever held in memory, whatever the size of the payload.
+public class JsonStateReader implements StateReader {
+    private final ObjectMapper objectMapper;
+    private final ObjectReader nodeReader;
+    private final ObjectReader edgeReader;
+
+    public JsonStateReader(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.nodeReader = objectMapper.readerFor(Node.class);
+        this.edgeReader = objectMapper.readerFor(Edge.class);
+    }
+
+    @Override
+    public StateHeader read(InputStream in, StateVisitor visitor) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            String replicaId = null;
+            long version = 0;
+            long clock = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("replicaId".equals(field)) {
+                    replicaId = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                } else if ("version".equals(field)) {
+                    version = parser.getValueAsLong();
+                } else if ("clock".equals(field)) {
+                    clock = parser.getValueAsLong();
+                } else if ("state".equals(field)) {
+                    readState(parser, visitor);
+                } else {
+                    readSection(parser, field, visitor);
+                }
+            }
+            expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
+            return new StateHeader(replicaId, version, clock);
+        }
+    }
+
+    private void readState(JsonParser parser, StateVisitor visitor) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return;
+        }
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            readSection(parser, field, visitor);
+        }
+    }
+
+    private void readSection(JsonParser parser, String field, StateVisitor visitor) throws IOException {
+        switch (field) {
+            case "nodesAdded":
+                readNodes(parser, visitor::nodeAdded);
+                break;
+            case "nodesRemoved":
+                readNodes(parser, visitor::nodeRemoved);
+                break;
+            case "edgesAdded":
+                readEdges(parser, visitor::edgeAdded);
+                break;
+            case "edgesRemoved":
+                readEdges(parser, visitor::edgeRemoved);
+                break;
+            default:
+                parser.skipChildren();
+        }
+    }
+
+    // Nodes are keyed by their UUID, which each node also carries itself.
+    private void readNodes(JsonParser parser, Consumer<Node> visit) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return;
+        }
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            if (parser.nextToken() != JsonToken.VALUE_NULL) {
+                Node node = nodeReader.readValue(parser);
+                if (node.getNodeUuid() == null || node.getLabel() == null) {
+                    throw new IOException("Node without a label or UUID at " + parser.getCurrentLocation());
+                }
+                visit.accept(node);
+            }
+        }
+    }
+
+    private void readEdges(JsonParser parser, Consumer<Edge> visit) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return;
+        }
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new EOFException();
+            }
+            if (token != JsonToken.VALUE_NULL) {
+                Edge edge = edgeReader.readValue(parser);
+                if (edge.getSourceNodeLabel() == null || edge.getDestinationNodeLabel() == null) {
+                    throw new IOException("Edge without both node labels at " + parser.getCurrentLocation());
+                }
+                visit.accept(edge);
+            }
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Expected " + expected + " but found " + actual + " at " + parser.getCurrentLocation());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package dev.kodobo.crdtgraphchallenge.codec;
+
+// What a StateReader found besides the entries themselves. Only a delta carries a replica id, version and clock.
+public class StateHeader {
+    private final String replicaId;
+    private final long version;
+    private final long clock;
+
+    public StateHeader(String replicaId, long version, long clock) {
+        this.replicaId = replicaId;
+        this.version = version;
+        this.clock = clock;
+    }
+
+    public String getReplicaId() {
+        return replicaId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getClock() {
+        return clock;
+    }
+}
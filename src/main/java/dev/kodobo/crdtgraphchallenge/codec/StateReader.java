@@ -0,0 +1,12 @@
+package dev.kodobo.crdtgraphchallenge.codec;
+
+import dev.kodobo.crdtgraphchallenge.model.StateVisitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Reads a serialised State or StateDelta one entry at a time, handing each entry to the visitor as soon as it has
+// been read rather than building the whole state first.
+public interface StateReader {
+    StateHeader read(InputStream in, StateVisitor visitor) throws IOException;
+}
@@ -0,0 +1,51 @@
+package dev.kodobo.crdtgraphchallenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@ConfigurationProperties(prefix = "crdt.compaction")
+public class CompactionProperties {
+    private boolean enabled = false;
+    private Duration interval = Duration.ofMinutes(1);
+    // How much older than what every replica has acknowledged a removal has to be before it is purged. It has to
+    // cover the clock skew between replicas and the time a write takes to reach the state.
+    private Duration retention = Duration.ofMinutes(10);
+    // The ids of every other replica. Removals are only purged once each of them has sent us a delta, so a replica
+    // missing from here could bring purged elements back.
+    private List<String> replicas = new ArrayList<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+
+    public Duration getRetention() {
+        return retention;
+    }
+
+    public void setRetention(Duration retention) {
+        this.retention = retention;
+    }
+
+    public List<String> getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(List<String> replicas) {
+        this.replicas = replicas;
+    }
+}
@@ -0,0 +1,101 @@
+package dev.kodobo.crdtgraphchallenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@ConfigurationProperties(prefix = "crdt.gossip")
+public class GossipProperties {
+    private boolean enabled = false;
+    // The base URLs of the replicas to gossip with, such as http://replica-b:8080.
+    private List<String> peers = new ArrayList<>();
+    // How often a round starts, give or take the jitter: a round of 1s with a jitter of 0.25 starts 0.75s to 1.25s
+    // after the previous one, so replicas started together don't all sync at the same moment.
+    private Duration interval = Duration.ofSeconds(1);
+    private double jitter = 0.25;
+    // How many peers a round syncs with, picked at random.
+    private int fanout = 2;
+    // How many syncs may be under way at once, across rounds. A round that finds them all taken skips the rest.
+    private int maxInFlight = 4;
+    // A peer that fails is left alone for twice as long after each failure in a row, starting from the interval,
+    // up to this.
+    private Duration maxBackoff = Duration.ofMinutes(1);
+    private Duration timeout = Duration.ofSeconds(5);
+    // Every this many syncs with a peer, the states are compared by digest instead of exchanging deltas, which
+    // repairs anything the deltas missed, for instance after a peer restarted. Zero never does.
+    private int reconcileEvery = 10;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public void setPeers(List<String> peers) {
+        this.peers = peers;
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public void setInterval(Duration interval) {
+        this.interval = interval;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+
+    public int getFanout() {
+        return fanout;
+    }
+
+    public void setFanout(int fanout) {
+        this.fanout = fanout;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public void setMaxBackoff(Duration maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getReconcileEvery() {
+        return reconcileEvery;
+    }
+
+    public void setReconcileEvery(int reconcileEvery) {
+        this.reconcileEvery = reconcileEvery;
+    }
+}
@@ -0,0 +1,39 @@
+package dev.kodobo.crdtgraphchallenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "crdt.merge-pipeline")
+public class MergePipelineProperties {
+    // Otherwise each PUT /state is merged as it is read, on the thread serving it, which never holds more than one
+    // entry of it in memory. Queued states are held in full, so the pipeline has to be asked for.
+    private boolean enabled = false;
+    // How many states may wait to be merged. Each is held in full until it is, so this bounds memory as much as
+    // it bounds the wait; a state arriving when it's full is turned away with 503.
+    private int capacity = 256;
+    // The most states folded into one merge.
+    private int maxBatch = 64;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    public void setMaxBatch(int maxBatch) {
+        this.maxBatch = maxBatch;
+    }
+}
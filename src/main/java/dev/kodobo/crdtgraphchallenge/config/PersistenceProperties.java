@@ -0,0 +1,40 @@
+package dev.kodobo.crdtgraphchallenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "crdt.persistence")
+public class PersistenceProperties {
+    // Off by default, in which case the state only lives in memory and a restarted replica has to pull it back from
+    // its peers.
+    private boolean enabled = false;
+    private Path directory = Path.of("data");
+    // How often the state is checkpointed, which bounds how much of the log has to be replayed on startup.
+    private Duration checkpointInterval = Duration.ofMinutes(1);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    public Duration getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(Duration checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+}
@@ -0,0 +1,18 @@
+package dev.kodobo.crdtgraphchallenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "crdt.query-cache")
+public class QueryCacheProperties {
+    // The most the cached results may hold between them, counted in nodes, as a result weighs one per node in it.
+    // Zero turns the cache off.
+    private long maxWeight = 1_000_000;
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+}
@@ -0,0 +1,20 @@
+package dev.kodobo.crdtgraphchallenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.UUID;
+
+@ConfigurationProperties(prefix = "crdt.replica")
+public class ReplicaProperties {
+    // Identifies this replica to its peers. Unless configured, a replica gets a new identity each time it starts,
+    // which peers treat as a replica they have never synced with.
+    private String id = UUID.randomUUID().toString();
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+}
@@ -0,0 +1,24 @@
+package dev.kodobo.crdtgraphchallenge.config;
+
+import dev.kodobo.crdtgraphchallenge.codec.BinaryStateCodec;
+import dev.kodobo.crdtgraphchallenge.codec.BinaryStateMessageConverter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    private final WireFormatProperties wireFormatProperties;
+
+    public WebConfig(WireFormatProperties wireFormatProperties) {
+        this.wireFormatProperties = wireFormatProperties;
+    }
+
+    // Added after the defaults so JSON stays what a client gets unless it asks for the binary format.
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new BinaryStateMessageConverter(new BinaryStateCodec(wireFormatProperties.isCompress())));
+    }
+}
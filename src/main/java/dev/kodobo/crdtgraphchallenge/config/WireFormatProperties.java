@@ -0,0 +1,18 @@
+package dev.kodobo.crdtgraphchallenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties(prefix = "crdt.wire")
+public class WireFormatProperties {
+    // Whether states sent in the binary format are deflate compressed. Worth turning off between replicas on the
+    // same host, where the CPU costs more than the bytes saved.
+    private boolean compress = true;
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+}
@@ -1,38 +1,340 @@
 package dev.kodobo.crdtgraphchallenge.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kodobo.crdtgraphchallenge.codec.BinaryStateCodec;
+import dev.kodobo.crdtgraphchallenge.codec.JsonStateReader;
+import dev.kodobo.crdtgraphchallenge.codec.StateReader;
+import dev.kodobo.crdtgraphchallenge.helpers.CountingInputStream;
+import dev.kodobo.crdtgraphchallenge.metrics.GraphMetrics;
+import dev.kodobo.crdtgraphchallenge.model.CompactionStats;
+import dev.kodobo.crdtgraphchallenge.model.DigestSummary;
+import dev.kodobo.crdtgraphchallenge.model.GossipStats;
+import dev.kodobo.crdtgraphchallenge.model.MergePipelineStats;
+import dev.kodobo.crdtgraphchallenge.model.Neighbour;
+import dev.kodobo.crdtgraphchallenge.model.NeighbourhoodOrder;
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.QueryCacheStats;
 import dev.kodobo.crdtgraphchallenge.model.ReadOnlyGraph;
+import dev.kodobo.crdtgraphchallenge.model.RouteSearch;
 import dev.kodobo.crdtgraphchallenge.model.State;
-import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import dev.kodobo.crdtgraphchallenge.persistence.MappedSnapshot;
+import dev.kodobo.crdtgraphchallenge.service.AntiEntropyService;
+import dev.kodobo.crdtgraphchallenge.service.CompactionService;
 import dev.kodobo.crdtgraphchallenge.service.ConvergeStateService;
+import dev.kodobo.crdtgraphchallenge.service.CursorExpiredException;
+import dev.kodobo.crdtgraphchallenge.service.GossipService;
+import dev.kodobo.crdtgraphchallenge.service.MergePipeline;
+import dev.kodobo.crdtgraphchallenge.service.QueryService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 @RestController
 @RequestMapping("/api/v1/kodobo")
 public class ConvergeStateController {
+    private static final MediaType BINARY_STATE = MediaType.valueOf(BinaryStateCodec.MEDIA_TYPE);
+    private static final int DEFAULT_PAGE = 1000;
+
     private final ConvergeStateService convergeStateService;
+    private final CompactionService compactionService;
+    private final AntiEntropyService antiEntropyService;
+    private final QueryService queryService;
+    private final GossipService gossipService;
+    private final MergePipeline mergePipeline;
+    private final GraphMetrics metrics;
+    private final ObjectMapper objectMapper;
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private volatile SerialisedResult serialisedResult;
+    private final StateReader jsonReader;
+    private final StateReader binaryReader = new BinaryStateCodec();
 
-    public ConvergeStateController(ConvergeStateService convergeStateService) {
+    public ConvergeStateController(ConvergeStateService convergeStateService, CompactionService compactionService,
+                                   AntiEntropyService antiEntropyService, QueryService queryService,
+                                   GossipService gossipService, MergePipeline mergePipeline, GraphMetrics metrics,
+                                   ObjectMapper objectMapper) {
         this.convergeStateService = convergeStateService;
+        this.compactionService = compactionService;
+        this.antiEntropyService = antiEntropyService;
+        this.queryService = queryService;
+        this.gossipService = gossipService;
+        this.mergePipeline = mergePipeline;
+        this.metrics = metrics;
+        this.objectMapper = objectMapper;
+        this.jsonReader = new JsonStateReader(objectMapper);
     }
 
-//    @GetMapping(value="/state")
-//    public ResponseEntity<Graph> getState() {
-//        Graph state = convergeStateService.getLocalState();
-//        return ResponseEntity.ok(state);
-//    }
+    // Without a version this is the full state; otherwise only what changed after the version a peer last received.
+    // Replicas can exchange states in the compact binary format by asking for it, JSON otherwise. A peer that names
+    // itself can acknowledge the latest clock of ours it has merged, which tombstone compaction waits for.
+    @GetMapping(value="/state", produces = {MediaType.APPLICATION_JSON_VALUE, BinaryStateCodec.MEDIA_TYPE})
+    public ResponseEntity<StateDelta> getState(@RequestParam(value = "since", defaultValue = "0") long since,
+                                               @RequestParam(value = "replica", required = false) String replica,
+                                               @RequestParam(value = "acked", defaultValue = "0") long acked) {
+        StateDelta delta = convergeStateService.getDeltaSince(since, replica, acked);
+        return ResponseEntity.ok(delta);
+    }
 
+    // Straight after a restart the result is read from the last checkpoint until the state has been recovered. Given a
+    // limit or a cursor, only one page of it is returned, along with the cursor for the next. Otherwise the response
+    // carries the snapshot's version as its ETag: a client that already has it gets 304 without the graph being
+    // built, and the JSON for the latest version is kept, so asking again before anything changes costs nothing.
     @GetMapping(value="/result")
-    public ResponseEntity<ReadOnlyGraph> getResult() {
-        ReadOnlyGraph result = convergeStateService.getResult();
-        return ResponseEntity.ok(result);
+    public ResponseEntity<?> getResult(@RequestParam(value = "cursor", required = false) String cursor,
+                                       @RequestParam(value = "limit", required = false) Integer limit,
+                                       WebRequest request) throws IOException {
+        if (cursor != null || limit != null) {
+            try {
+                return ResponseEntity.ok(convergeStateService.getResultPage(cursor, limit == null ? DEFAULT_PAGE : limit));
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+            } catch (CursorExpiredException e) {
+                throw new ResponseStatusException(HttpStatus.GONE, e.getMessage(), e);
+            }
+        }
+        MappedSnapshot recovering = convergeStateService.getRecoveringSnapshot();
+        if (recovering != null) {
+            StreamingResponseBody body = out -> writeResult(recovering, out);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+        }
+        ReadOnlyGraph graph = convergeStateService.getSnapshot();
+        String etag = etag(graph, "json");
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT).contentType(MediaType.APPLICATION_JSON)
+                .body(serialised(graph));
+    }
+
+    // The result as newline delimited JSON, one node and the nodes it connects to per line, written straight from a
+    // single snapshot as it's walked, so the adjacency list is never built in full.
+    @GetMapping(value = "/result", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamResult(WebRequest request) {
+        MappedSnapshot recovering = convergeStateService.getRecoveringSnapshot();
+        if (recovering != null) {
+            StreamingResponseBody body = out -> writeLines(out, lines -> recovering.forEachNode(lines::accept));
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+        }
+        ReadOnlyGraph graph = convergeStateService.getSnapshot();
+        String etag = etag(graph, "ndjson");
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        // checkNotModified() has set the ETag already, and a streamed body's headers are added to the response's
+        // rather than replacing them, so it isn't set again here.
+        StreamingResponseBody body = out -> writeLines(out, lines -> graph.forEachNode(0, Integer.MAX_VALUE, lines));
+        return ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT).contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
-    @PutMapping(value = "state")
-    public void mergeState(@RequestBody State state) {
-        convergeStateService.merge(state);
+    // Incoming states are merged as the body is read rather than deserialised up front, so a large state never has to
+    // fit in memory alongside the local one. With the merge pipeline enabled they are instead read and queued to be
+    // merged together with whatever else has arrived meanwhile. The response is then sent once the state has been
+    // merged, or straight away with 202 Accepted given "Prefer: respond-async", and a state arriving while the queue
+    // is full gets 503 and should be sent again later.
+    @PutMapping(value = "state", consumes = {MediaType.APPLICATION_JSON_VALUE, BinaryStateCodec.MEDIA_TYPE})
+    public CompletableFuture<ResponseEntity<Void>> mergeState(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                              @RequestHeader(value = "Prefer", required = false) String prefer,
+                                                              InputStream body) {
+        return merge(contentType, prefer, body);
+    }
+
+    @PutMapping(value = "state/delta", consumes = {MediaType.APPLICATION_JSON_VALUE, BinaryStateCodec.MEDIA_TYPE})
+    public CompletableFuture<ResponseEntity<Void>> mergeDelta(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                              @RequestHeader(value = "Prefer", required = false) String prefer,
+                                                              InputStream body) {
+        return merge(contentType, prefer, body);
+    }
+
+    @GetMapping(value = "/merge-pipeline")
+    public ResponseEntity<MergePipelineStats> getMergePipelineStats() {
+        return ResponseEntity.ok(mergePipeline.getStats());
+    }
+
+    @GetMapping(value = "/compaction")
+    public ResponseEntity<CompactionStats> getCompactionStats() {
+        return ResponseEntity.ok(compactionService.getStats());
+    }
+
+    @GetMapping(value = "/gossip")
+    public ResponseEntity<GossipStats> getGossipStats() {
+        return ResponseEntity.ok(gossipService.getStats());
+    }
+
+    // From the destination back to the root, as ReadOnlyGraph.findShortestRoute returns it. Repeated queries are
+    // answered from the query cache until the graph changes.
+    @GetMapping(value = "/route")
+    public ResponseEntity<List<String>> getRoute(@RequestParam("from") String from, @RequestParam("to") String to,
+                                                 @RequestParam(value = "search", defaultValue = "FORWARD") RouteSearch search) {
+        if (!convergeStateService.getSnapshot().hasNode(from)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No nodes matching the given label!");
+        }
+        return ResponseEntity.ok(queryService.findShortestRoute(from, to, search));
+    }
+
+    // Answered from the graph's connected components, without a search.
+    @GetMapping(value = "/connected")
+    public ResponseEntity<Boolean> areConnected(@RequestParam("from") String from, @RequestParam("to") String to) {
+        return ResponseEntity.ok(convergeStateService.getSnapshot().areConnected(from, to));
+    }
+
+    // The nodes up to depth hops away from the given one, found by walking out from it over the current snapshot.
+    @GetMapping(value = "/neighbourhood")
+    public ResponseEntity<List<Neighbour>> getNeighbourhood(@RequestParam("label") String label,
+                                                            @RequestParam(value = "depth", defaultValue = "1") int depth,
+                                                            @RequestParam(value = "limit", defaultValue = "1000") int limit,
+                                                            @RequestParam(value = "order", defaultValue = "DISTANCE") NeighbourhoodOrder order) {
+        ReadOnlyGraph graph = convergeStateService.getSnapshot();
+        if (!graph.hasNode(label)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No nodes matching the given label!");
+        }
+        try {
+            return ResponseEntity.ok(graph.neighbourhood(label, depth, limit, order));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    @GetMapping(value = "/query-cache")
+    public ResponseEntity<QueryCacheStats> getQueryCacheStats() {
+        return ResponseEntity.ok(queryService.getStats());
+    }
+
+    // Anti-entropy: a peer compares the root and branch hashes of our digest with its own, then fetches the entries in
+    // the buckets that differ, and sends its own for them to PUT /state.
+    @GetMapping(value = "/digest")
+    public ResponseEntity<DigestSummary> getDigest() {
+        return ResponseEntity.ok(antiEntropyService.getDigest());
+    }
+
+    @GetMapping(value = "/digest/{branch}")
+    public ResponseEntity<DigestSummary> getDigest(@PathVariable("branch") int branch) {
+        try {
+            return ResponseEntity.ok(antiEntropyService.getDigest(branch));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    // A POST only so the bucket list doesn't have to fit in a URL.
+    @PostMapping(value = "/digest/buckets", produces = {MediaType.APPLICATION_JSON_VALUE, BinaryStateCodec.MEDIA_TYPE})
+    public ResponseEntity<State> getBuckets(@RequestBody List<Integer> buckets) {
+        try {
+            return ResponseEntity.ok(antiEntropyService.getBuckets(buckets));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    // Snapshot versions only move on when the graph changes, but start again when the replica does, so they're
+    // qualified by when it started, and by the format, as each has its own bytes.
+    private String etag(ReadOnlyGraph graph, String format) {
+        return "\"" + epoch + "-" + graph.getVersion() + "-" + format + "\"";
+    }
+
+    // Serialising a snapshot older than the one kept is left uncached, so a slow request can't replace newer bytes.
+    private byte[] serialised(ReadOnlyGraph graph) throws IOException {
+        SerialisedResult cached = serialisedResult;
+        if (cached != null && cached.version == graph.getVersion()) {
+            return cached.json;
+        }
+        metrics.timeMaterialisation(graph::getGraph);
+        byte[] json = objectMapper.writeValueAsBytes(graph);
+        synchronized (this) {
+            if (serialisedResult == null || serialisedResult.version < graph.getVersion()) {
+                serialisedResult = new SerialisedResult(graph.getVersion(), json);
+            }
+        }
+        return json;
+    }
+
+    // The same JSON as a serialised ReadOnlyGraph.
+    private void writeResult(MappedSnapshot snapshot, OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("graph");
+            snapshot.forEachNode((node, connected) -> {
+                try {
+                    generator.writeFieldName(node.toString());
+                    generator.writeObject(connected);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void writeLines(OutputStream out, Consumer<BiConsumer<Node, List<Node>>> walk) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            // Lines are separated by the newline written after each one, rather than Jackson's default space.
+            generator.setRootValueSeparator(null);
+            walk.accept((node, connected) -> {
+                try {
+                    generator.writeStartObject();
+                    generator.writeObjectField("node", node);
+                    generator.writeObjectField("connected", connected);
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private CompletableFuture<ResponseEntity<Void>> merge(String contentType, String prefer, InputStream body) {
+        boolean binary = BINARY_STATE.isCompatibleWith(MediaType.parseMediaType(contentType));
+        StateReader reader = binary ? binaryReader : jsonReader;
+        CountingInputStream counted = new CountingInputStream(body);
+        try {
+            if (!mergePipeline.isEnabled()) {
+                convergeStateService.mergeStream(reader, counted);
+                return CompletableFuture.completedFuture(ResponseEntity.ok().build());
+            }
+            CompletableFuture<Void> merged = mergePipeline.submit(reader, counted);
+            if (prefer != null && prefer.contains("respond-async")) {
+                return CompletableFuture.completedFuture(ResponseEntity.accepted().build());
+            }
+            return merged.thenApply(done -> ResponseEntity.ok().build());
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .build());
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Could not read state: " + e.getMessage(), e);
+        } finally {
+            metrics.recordPayload(binary ? "binary" : "json", counted.getCount());
+        }
+    }
+
+    private static final class SerialisedResult {
+        private final long version;
+        private final byte[] json;
+
+        private SerialisedResult(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
     }
 }
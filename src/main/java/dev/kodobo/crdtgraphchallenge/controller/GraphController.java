@@ -0,0 +1,48 @@
+package dev.kodobo.crdtgraphchallenge.controller;
+
+import dev.kodobo.crdtgraphchallenge.codec.AdjacencyListReader;
+import dev.kodobo.crdtgraphchallenge.model.GraphBatch;
+import dev.kodobo.crdtgraphchallenge.service.GraphService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+// Local writes to the graph, as opposed to merges from other replicas.
+@RestController
+@RequestMapping("/api/v1/kodobo/graph")
+public class GraphController {
+    private final GraphService graphService;
+    private final AdjacencyListReader adjacencyListReader = new AdjacencyListReader();
+
+    public GraphController(GraphService graphService) {
+        this.graphService = graphService;
+    }
+
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Void> applyBatch(@RequestBody GraphBatch batch) {
+        graphService.apply(batch, LocalDateTime.now());
+        return ResponseEntity.noContent().build();
+    }
+
+    // Loads a graph in the same adjacency list format as the test data, as it is read. Each batch is applied as soon
+    // as it fills, so a file that turns out to be malformed part way through stays loaded up to that point.
+    // Returns the number of nodes loaded.
+    @PostMapping(value = "/import", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<Long> importAdjacencyList(InputStream body) {
+        try {
+            long nodes = adjacencyListReader.read(new InputStreamReader(body, StandardCharsets.UTF_8),
+                    batch -> graphService.apply(batch, LocalDateTime.now()));
+            return ResponseEntity.ok(nodes);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Could not read graph: " + e.getMessage(), e);
+        }
+    }
+}
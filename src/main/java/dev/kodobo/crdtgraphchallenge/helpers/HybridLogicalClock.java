@@ -0,0 +1,67 @@
+package dev.kodobo.crdtgraphchallenge.helpers;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A hybrid logical clock whose timestamps are packed into a single long:
+//   | 44 bits physical time (ms since the epoch) | 12 bits logical counter | 8 bits replica |
+// Comparing two timestamps as plain longs orders them by physical time, then by the counter, then by the replica
+// that issued them, so every replica resolves the same pair of writes the same way. The replica is only an 8 bit hash
+// of its id, so two replicas can share one and their writes to an element can then tie. That's harmless: elements
+// carry nothing but their label, so either entry is the same, and on a tie every replica keeps the one it already has.
+public class HybridLogicalClock {
+    private static final int REPLICA_BITS = 8;
+    private static final int LOGICAL_BITS = 12;
+    private static final long REPLICA_MASK = (1L << REPLICA_BITS) - 1;
+
+    private final long replica;
+    // The latest timestamp issued or observed, without the replica bits. Physical time and counter sit next to each
+    // other, so bumping the counter past its last value simply carries into the next millisecond.
+    private final AtomicLong last = new AtomicLong();
+
+    public HybridLogicalClock(String replicaId) {
+        int h = replicaId.hashCode();
+        this.replica = (h ^ (h >>> 8) ^ (h >>> 16) ^ (h >>> 24)) & REPLICA_MASK;
+    }
+
+    // Issues the timestamp for a local write made at the given wall clock time. It is always later than anything
+    // this clock has issued or observed before, even if the wall clock has gone backwards in the meantime.
+    public long tick(long physicalMillis) {
+        long candidate = physicalMillis << LOGICAL_BITS;
+        return last.updateAndGet(previous -> Math.max(previous + 1, candidate)) << REPLICA_BITS | replica;
+    }
+
+    public long tick(LocalDateTime time) {
+        return tick(time.toInstant(ZoneOffset.UTC).toEpochMilli());
+    }
+
+    // Moves the clock past a timestamp received from another replica, so that anything we write afterwards is
+    // ordered after it.
+    public void observe(long timestamp) {
+        long seen = timestamp >>> REPLICA_BITS;
+        if (seen > last.get()) {
+            last.accumulateAndGet(seen, Math::max);
+        }
+    }
+
+    // Nothing this clock issues from now on will be earlier than this. The clock is moved on to the given wall clock
+    // time first, so that an idle replica's clock still keeps up with time passing.
+    public long now(long physicalMillis) {
+        return last.accumulateAndGet(physicalMillis << LOGICAL_BITS, Math::max) << REPLICA_BITS;
+    }
+
+    public static long physicalTime(long timestamp) {
+        return timestamp >>> (REPLICA_BITS + LOGICAL_BITS);
+    }
+
+    // The earliest timestamp at the given physical time.
+    public static long fromPhysicalTime(long physicalMillis) {
+        return physicalMillis << (REPLICA_BITS + LOGICAL_BITS);
+    }
+
+    public static LocalDateTime toLocalDateTime(long timestamp) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(physicalTime(timestamp)), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,28 @@
+package dev.kodobo.crdtgraphchallenge.helpers;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands out a dense int id for every label, in the order the labels are first seen. Ids are never reused, so an id
+// taken from any snapshot of the graph stays valid for as long as the dictionary lives.
+public class LabelDictionary {
+    public static final int UNKNOWN = -1;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    public int idOf(String label) {
+        return ids.computeIfAbsent(label, l -> nextId.getAndIncrement());
+    }
+
+    // Looks the label up without adding it to the dictionary.
+    public int find(String label) {
+        Integer id = ids.get(label);
+        return id == null ? UNKNOWN : id;
+    }
+
+    public int size() {
+        return nextId.get();
+    }
+}
@@ -0,0 +1,118 @@
+package dev.kodobo.crdtgraphchallenge.helpers;
+
+import java.util.Arrays;
+
+// An immutable, sparse array indexed by int. It is stored as a 32-way trie, so set() only copies the path from the
+// root to the slot it changes (at most seven arrays of 32 references) and shares everything else with the original.
+// Unset slots read as null and iteration runs in index order.
+public final class PersistentVector<T> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, new Object[WIDTH], 0);
+
+    private final int shift;
+    private final Object[] root;
+    private final int length;
+
+    private PersistentVector(int shift, Object[] root, int length) {
+        this.shift = shift;
+        this.root = root;
+        this.length = length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentVector<T> empty() {
+        return (PersistentVector<T>) EMPTY;
+    }
+
+    // Builds a vector holding the given values in one go, which is much cheaper than a set() per slot.
+    public static <T> PersistentVector<T> of(T[] values) {
+        if (values.length == 0) {
+            return empty();
+        }
+        int shift = 0;
+        while (((long) (values.length - 1) >>> shift) >= WIDTH) {
+            shift += BITS;
+        }
+        return new PersistentVector<>(shift, build(values, shift, 0), values.length);
+    }
+
+    private static Object[] build(Object[] values, int level, int offset) {
+        Object[] node = new Object[WIDTH];
+        for (int slot = 0; slot < WIDTH; slot++) {
+            int start = offset + (slot << level);
+            if (start >= values.length) {
+                break;
+            }
+            node[slot] = level == 0 ? values[start] : build(values, level - BITS, start);
+        }
+        return node;
+    }
+
+    // One past the highest index that has ever been set.
+    public int length() {
+        return length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= length) {
+            return null;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (T) node[index & MASK];
+    }
+
+    public PersistentVector<T> set(int index, T value) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int newShift = shift;
+        Object[] newRoot = root;
+        while (((long) index >>> newShift) >= WIDTH) {
+            Object[] grown = new Object[WIDTH];
+            grown[0] = newRoot;
+            newRoot = grown;
+            newShift += BITS;
+        }
+        return new PersistentVector<>(newShift, set(newRoot, newShift, index, value), Math.max(length, index + 1));
+    }
+
+    private static Object[] set(Object[] node, int level, int index, Object value) {
+        Object[] copy = node == null ? new Object[WIDTH] : Arrays.copyOf(node, WIDTH);
+        int slot = (index >>> level) & MASK;
+        copy[slot] = level == 0 ? value : set((Object[]) copy[slot], level - BITS, index, value);
+        return copy;
+    }
+
+    public void forEach(IndexedConsumer<? super T> action) {
+        forEach(root, shift, 0, action);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void forEach(Object[] node, int level, int offset, IndexedConsumer<? super T> action) {
+        for (int slot = 0; slot < WIDTH; slot++) {
+            Object child = node[slot];
+            if (child == null) {
+                continue;
+            }
+            if (level == 0) {
+                action.accept(offset + slot, (T) child);
+            } else {
+                forEach((Object[]) child, level - BITS, offset + (slot << level), action);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface IndexedConsumer<T> {
+        void accept(int index, T value);
+    }
+}
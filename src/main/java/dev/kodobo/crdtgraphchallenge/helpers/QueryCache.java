@@ -0,0 +1,98 @@
+package dev.kodobo.crdtgraphchallenge.helpers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+// A least recently used cache of query results, bounded by the total weight of what it holds. Every result belongs
+// to the version of the graph it was computed on, and the first result for a newer version drops everything cached
+// for older ones, as no query will be asked of them again.
+public class QueryCache<K, V> {
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    // In access order, so the eldest entry is always the least recently used one. Guarded by this.
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long version;
+    private long weight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public QueryCache(long maxWeight, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    // The query runs outside the lock, so a slow one doesn't hold up the others. Two threads missing on the same key
+    // at once may both run it, which does no harm as they compute the same result.
+    public V get(K key, long graphVersion, Supplier<V> query) {
+        synchronized (this) {
+            if (graphVersion == version) {
+                V cached = entries.get(key);
+                if (cached != null) {
+                    hits++;
+                    return cached;
+                }
+            }
+            misses++;
+        }
+        V result = query.get();
+        put(key, graphVersion, result);
+        return result;
+    }
+
+    private synchronized void put(K key, long graphVersion, V result) {
+        if (graphVersion < version) {
+            return;
+        }
+        if (graphVersion > version) {
+            invalidations += entries.size();
+            entries.clear();
+            weight = 0;
+            version = graphVersion;
+        }
+        long resultWeight = weigher.applyAsLong(result);
+        if (resultWeight > maxWeight) {
+            return;
+        }
+        V previous = entries.put(key, result);
+        if (previous != null) {
+            weight -= weigher.applyAsLong(previous);
+        }
+        weight += resultWeight;
+        Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight) {
+            weight -= weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+}
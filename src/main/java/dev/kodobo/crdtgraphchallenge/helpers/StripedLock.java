@@ -0,0 +1,28 @@
+package dev.kodobo.crdtgraphchallenge.helpers;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A fixed pool of locks shared out by key hash. Writes to the same key always meet on the same lock, while writes to
+// different keys only contend when their hashes happen to land on the same stripe.
+public class StripedLock {
+    private final Lock[] stripes;
+
+    public StripedLock(int minimumStripes) {
+        int size = Integer.highestOneBit(Math.max(1, minimumStripes - 1)) << 1;
+        stripes = new Lock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public StripedLock() {
+        this(Runtime.getRuntime().availableProcessors() * 16);
+    }
+
+    public Lock get(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+}
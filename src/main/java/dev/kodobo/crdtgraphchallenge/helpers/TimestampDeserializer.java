@@ -0,0 +1,36 @@
+package dev.kodobo.crdtgraphchallenge.helpers;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+// Reads an element's timestamp, which is a packed hybrid logical clock value, or an ISO-8601 date and time as sent by
+// clients from before timestamps were packed. Those are read as UTC, like the times passed to GraphService, and taken
+// as the earliest timestamp at that time.
+public class TimestampDeserializer extends StdDeserializer<Long> {
+    private static final long serialVersionUID = 1L;
+
+    public TimestampDeserializer() {
+        super(Long.class);
+    }
+
+    @Override
+    public Long deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            return parser.getValueAsLong();
+        }
+        String text = parser.getText().trim();
+        try {
+            long millis = LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+            return HybridLogicalClock.fromPhysicalTime(millis);
+        } catch (DateTimeParseException e) {
+            return (Long) context.handleWeirdStringValue(Long.class, text, "not a timestamp or ISO-8601 date and time");
+        }
+    }
+}
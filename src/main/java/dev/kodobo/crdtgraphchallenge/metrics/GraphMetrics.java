@@ -0,0 +1,73 @@
+package dev.kodobo.crdtgraphchallenge.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+    Timings and sizes for the hot paths: merges, materialising the result and traversals, plus the size of the states
+    peers send us. Everything is published with a percentile histogram, so percentiles can be aggregated across
+    replicas and alerted on. They are served by actuator at /actuator/prometheus and /actuator/metrics.
+
+    Meters are tagged by where they were recorded from, and registered the first time each tag is seen.
+ */
+@Component
+public class GraphMetrics {
+    private final MeterRegistry registry;
+    private final Map<String, Timer> merges = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> mergedElements = new ConcurrentHashMap<>();
+    private final Map<String, Timer> traversals = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> payloads = new ConcurrentHashMap<>();
+    private final Timer materialisation;
+
+    public GraphMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.materialisation = Timer.builder("crdt.graph.materialize")
+                .description("Time taken to build the result graph")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    // The source is how the remote state arrived, such as state, delta or stream.
+    public void recordMerge(String source, long nanos, long elements) {
+        merges.computeIfAbsent(source, s -> Timer.builder("crdt.merge")
+                .description("Time taken to merge a remote state")
+                .tag("source", s)
+                .publishPercentileHistogram()
+                .register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+        mergedElements.computeIfAbsent(source, s -> DistributionSummary.builder("crdt.merge.elements")
+                .description("Entries in each merged remote state")
+                .baseUnit("elements")
+                .tag("source", s)
+                .publishPercentileHistogram()
+                .register(registry)).record(elements);
+    }
+
+    public <T> T timeMaterialisation(Supplier<T> build) {
+        return materialisation.record(build);
+    }
+
+    public <T> T timeTraversal(String query, Supplier<T> traversal) {
+        return traversals.computeIfAbsent(query, q -> Timer.builder("crdt.traversal")
+                .description("Time taken by a traversal that was not answered from the query cache")
+                .tag("query", q)
+                .publishPercentileHistogram()
+                .register(registry)).record(traversal);
+    }
+
+    // The format is the media type the state came in, json or binary.
+    public void recordPayload(String format, long bytes) {
+        payloads.computeIfAbsent(format, f -> DistributionSummary.builder("crdt.state.payload")
+                .description("Size of the states and deltas received from peers")
+                .baseUnit("bytes")
+                .tag("format", f)
+                .publishPercentileHistogram()
+                .register(registry)).record(bytes);
+    }
+}
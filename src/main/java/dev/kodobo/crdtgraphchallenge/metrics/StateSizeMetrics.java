@@ -0,0 +1,44 @@
+package dev.kodobo.crdtgraphchallenge.metrics;
+
+import dev.kodobo.crdtgraphchallenge.service.GraphService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.function.IntSupplier;
+
+// Live and tombstoned node and edge counts, for keeping an eye on how far the remove sets grow between compactions.
+// They read as NaN while the state is still being recovered, rather than hold up the scrape until it has been.
+@Component
+public class StateSizeMetrics implements MeterBinder {
+    private final GraphService graphService;
+
+    public StateSizeMetrics(GraphService graphService) {
+        this.graphService = graphService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("crdt.state.nodes", graphService, g -> count(g, () -> g.getGraph().size()))
+                .description("Nodes in the graph")
+                .tag("state", "live")
+                .register(registry);
+        Gauge.builder("crdt.state.nodes", graphService, g -> count(g, () -> g.getState().getNodesRemoved().size()))
+                .description("Nodes in the remove set")
+                .tag("state", "tombstoned")
+                .register(registry);
+        Gauge.builder("crdt.state.edges", graphService, g -> count(g, () -> g.getGraph().edgeCount()))
+                .description("Edges in the graph")
+                .tag("state", "live")
+                .register(registry);
+        Gauge.builder("crdt.state.edges", graphService, g -> count(g, () -> g.getState().getEdgesRemoved().size()))
+                .description("Edges in the remove set")
+                .tag("state", "tombstoned")
+                .register(registry);
+    }
+
+    private static double count(GraphService graphService, IntSupplier count) {
+        return graphService.getRecoveringSnapshot() != null ? Double.NaN : count.getAsInt();
+    }
+}
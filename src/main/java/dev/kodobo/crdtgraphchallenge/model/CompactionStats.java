@@ -0,0 +1,45 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+// What compaction has reclaimed since the replica started, and how many tombstones are left.
+public class CompactionStats {
+    private final long runs;
+    private final long purgedNodeEntries;
+    private final long purgedEdgeEntries;
+    private final long compactedBelow;
+    private final long nodeTombstones;
+    private final long edgeTombstones;
+
+    public CompactionStats(long runs, long purgedNodeEntries, long purgedEdgeEntries, long compactedBelow,
+                           long nodeTombstones, long edgeTombstones) {
+        this.runs = runs;
+        this.purgedNodeEntries = purgedNodeEntries;
+        this.purgedEdgeEntries = purgedEdgeEntries;
+        this.compactedBelow = compactedBelow;
+        this.nodeTombstones = nodeTombstones;
+        this.edgeTombstones = edgeTombstones;
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    public long getPurgedNodeEntries() {
+        return purgedNodeEntries;
+    }
+
+    public long getPurgedEdgeEntries() {
+        return purgedEdgeEntries;
+    }
+
+    public long getCompactedBelow() {
+        return compactedBelow;
+    }
+
+    public long getNodeTombstones() {
+        return nodeTombstones;
+    }
+
+    public long getEdgeTombstones() {
+        return edgeTombstones;
+    }
+}
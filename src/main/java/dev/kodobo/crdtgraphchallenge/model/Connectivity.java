@@ -0,0 +1,94 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+import dev.kodobo.crdtgraphchallenge.helpers.PersistentVector;
+
+// The connected components of one snapshot of the graph, ignoring the direction of edges, as an immutable union-find
+// indexed by label id. A slot holds the id of its parent, or, for the root of a component, minus the component's
+// size. Unset slots are components of one. Union by size keeps every node within log n steps of its root, so there
+// is no need for path compression, which an immutable structure couldn't do anyway.
+//
+// Joining two components only copies the path to one root's slot, so the next snapshot's components can be derived
+// from this one's as edges are added. Nothing comparable works for taking edges away, so those start from scratch.
+final class Connectivity {
+    static final Connectivity EMPTY = new Connectivity(PersistentVector.empty());
+
+    private final PersistentVector<Integer> slots;
+
+    private Connectivity(PersistentVector<Integer> slots) {
+        this.slots = slots;
+    }
+
+    int find(int id) {
+        for (Integer parent = slots.get(id); parent != null && parent >= 0; parent = slots.get(id)) {
+            id = parent;
+        }
+        return id;
+    }
+
+    int size(int id) {
+        Integer slot = slots.get(find(id));
+        return slot == null ? 1 : -slot;
+    }
+
+    Connectivity union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return this;
+        }
+        int sizeA = size(rootA);
+        int sizeB = size(rootB);
+        if (sizeA < sizeB) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        return new Connectivity(slots.set(rootB, rootA).set(rootA, -(sizeA + sizeB)));
+    }
+
+    // The edges of a CSR graph only ever join nodes that are both present.
+    static Connectivity build(CsrGraph g) {
+        int n = g.size();
+        int[] parents = new int[n];
+        for (int id = 0; id < n; id++) {
+            parents[id] = -1;
+        }
+        for (int id = 0; id < n; id++) {
+            for (int e = g.offsets[id]; e < g.offsets[id + 1]; e++) {
+                int rootA = root(parents, id);
+                int rootB = root(parents, g.targets[e]);
+                if (rootA != rootB) {
+                    if (parents[rootA] > parents[rootB]) {
+                        int swap = rootA;
+                        rootA = rootB;
+                        rootB = swap;
+                    }
+                    parents[rootA] += parents[rootB];
+                    parents[rootB] = rootA;
+                }
+            }
+        }
+        // Flattened on the way out, as nothing can change them after this.
+        Integer[] slots = new Integer[n];
+        for (int id = 0; id < n; id++) {
+            int root = root(parents, id);
+            if (root != id) {
+                slots[id] = root;
+            } else if (parents[id] != -1) {
+                slots[id] = parents[id];
+            }
+        }
+        return new Connectivity(PersistentVector.of(slots));
+    }
+
+    private static int root(int[] parents, int id) {
+        while (parents[id] >= 0) {
+            // Path halving, which is fine while the array is still ours.
+            if (parents[parents[id]] >= 0) {
+                parents[id] = parents[parents[id]];
+            }
+            id = parents[id];
+        }
+        return id;
+    }
+}
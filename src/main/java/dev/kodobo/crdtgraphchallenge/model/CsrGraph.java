@@ -0,0 +1,91 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+// A compressed sparse row copy of one snapshot of the graph, indexed by label id: the live neighbours of node i are
+// targets[offsets[i]] up to (but not including) targets[offsets[i + 1]]. Only nodes that are present, and edges
+// between two present nodes, make it in, so traversals need no further checks.
+final class CsrGraph {
+    final Node[] nodes;
+    final int[] offsets;
+    final int[] targets;
+    private volatile CsrGraph reversed;
+
+    private CsrGraph(Node[] nodes, int[] offsets, int[] targets) {
+        this.nodes = nodes;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    boolean contains(int id) {
+        return id >= 0 && id < nodes.length && nodes[id] != null;
+    }
+
+    String label(int id) {
+        return nodes[id].getLabel();
+    }
+
+    // The same graph with every edge pointing the other way, for searching back from a destination. Built the first
+    // time it's asked for.
+    CsrGraph reversed() {
+        CsrGraph result = reversed;
+        if (result == null) {
+            int n = nodes.length;
+            int[] reversedOffsets = new int[n + 1];
+            for (int target : targets) {
+                reversedOffsets[target + 1]++;
+            }
+            for (int id = 0; id < n; id++) {
+                reversedOffsets[id + 1] += reversedOffsets[id];
+            }
+            int[] next = Arrays.copyOf(reversedOffsets, n);
+            int[] reversedTargets = new int[targets.length];
+            for (int id = 0; id < n; id++) {
+                for (int e = offsets[id]; e < offsets[id + 1]; e++) {
+                    reversedTargets[next[targets[e]]++] = id;
+                }
+            }
+            result = new CsrGraph(nodes, reversedOffsets, reversedTargets);
+            result.reversed = this;
+            reversed = result;
+        }
+        return result;
+    }
+
+    // nodes and outgoing are both indexed by label id, with null where a label has no node or no edges.
+    static CsrGraph build(Node[] nodes, int[][] outgoing) {
+        int n = nodes.length;
+        IntPredicate present = id -> id < n && nodes[id] != null;
+
+        int[] offsets = new int[n + 1];
+        for (int id = 0; id < n; id++) {
+            int degree = 0;
+            if (nodes[id] != null && outgoing[id] != null) {
+                for (int target : outgoing[id]) {
+                    if (present.test(target)) {
+                        degree++;
+                    }
+                }
+            }
+            offsets[id + 1] = offsets[id] + degree;
+        }
+
+        int[] targets = new int[offsets[n]];
+        for (int id = 0; id < n; id++) {
+            if (nodes[id] != null && outgoing[id] != null) {
+                int at = offsets[id];
+                for (int target : outgoing[id]) {
+                    if (present.test(target)) {
+                        targets[at++] = target;
+                    }
+                }
+            }
+        }
+        return new CsrGraph(nodes, offsets, targets);
+    }
+}
@@ -0,0 +1,24 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// One level of a state digest: the hash of the root or of a branch, and the hashes of its children.
+public class DigestSummary {
+    private final long hash;
+    private final long[] children;
+
+    @JsonCreator
+    public DigestSummary(@JsonProperty("hash") long hash, @JsonProperty("children") long[] children) {
+        this.hash = hash;
+        this.children = children;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public long[] getChildren() {
+        return children;
+    }
+}
@@ -1,17 +1,23 @@
 package dev.kodobo.crdtgraphchallenge.model;
 
-import java.time.LocalDateTime;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import dev.kodobo.crdtgraphchallenge.helpers.TimestampDeserializer;
+
 import java.util.Objects;
 
 public class Edge {
     private final String sourceNodeLabel;
     private final String destinationNodeLabel;
-    private final LocalDateTime timestamp;
+    // A hybrid logical clock timestamp, see HybridLogicalClock. Read from ISO-8601 as well, see TimestampDeserializer.
+    private final long timestamp;
 
+    @JsonCreator
     public Edge(
-            String sourceNodeLabel,
-            String destinationNodeLabel,
-            LocalDateTime timestamp) {
+            @JsonProperty("sourceNodeLabel") String sourceNodeLabel,
+            @JsonProperty("destinationNodeLabel") String destinationNodeLabel,
+            @JsonProperty("timestamp") @JsonDeserialize(using = TimestampDeserializer.class) long timestamp) {
         this.sourceNodeLabel = sourceNodeLabel;
         this.destinationNodeLabel = destinationNodeLabel;
         this.timestamp = timestamp;
@@ -25,7 +31,7 @@ public class Edge {
         return destinationNodeLabel;
     }
 
-    public LocalDateTime getTimestamp() {
+    public long getTimestamp() {
         return timestamp;
     }
 
@@ -46,11 +52,12 @@ public class Edge {
         return Objects.hash(sourceNodeLabel, destinationNodeLabel);
     }
 
+    // On a tie the comparator is kept, like Node does, so merging an entry we already hold changes nothing.
     public Edge determineLatest(Edge comparator) {
         if (comparator == null) {
             return this;
         } else {
-            return this.getTimestamp().isAfter(comparator.getTimestamp()) ? this : comparator;
+            return this.getTimestamp() > comparator.getTimestamp() ? this : comparator;
         }
     }
 }
@@ -0,0 +1,58 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+// How gossip has gone since the replica started. Merges counts how many times pulled deltas were merged, which is
+// fewer than the deltas themselves when deltas from several peers arrived together.
+public class GossipStats {
+    private final long rounds;
+    private final long syncs;
+    private final long reconciliations;
+    private final long failures;
+    private final long skipped;
+    private final long deltas;
+    private final long merges;
+    private final int inFlight;
+
+    public GossipStats(long rounds, long syncs, long reconciliations, long failures, long skipped, long deltas,
+                       long merges, int inFlight) {
+        this.rounds = rounds;
+        this.syncs = syncs;
+        this.reconciliations = reconciliations;
+        this.failures = failures;
+        this.skipped = skipped;
+        this.deltas = deltas;
+        this.merges = merges;
+        this.inFlight = inFlight;
+    }
+
+    public long getRounds() {
+        return rounds;
+    }
+
+    public long getSyncs() {
+        return syncs;
+    }
+
+    public long getReconciliations() {
+        return reconciliations;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getDeltas() {
+        return deltas;
+    }
+
+    public long getMerges() {
+        return merges;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+}
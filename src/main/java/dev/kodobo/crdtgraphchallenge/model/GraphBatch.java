@@ -0,0 +1,96 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+// Writes to apply to the graph in one go, all with the same timestamp. As with any two writes with equal timestamps,
+// removing an element in the same batch as adding it leaves it removed.
+public class GraphBatch {
+    private final List<String> addNodes;
+    private final List<String> removeNodes;
+    private final List<EdgePair> addEdgePairs;
+    private final List<EdgePair> removeEdgePairs;
+
+    public GraphBatch() {
+        this(null, null, null, null);
+    }
+
+    @JsonCreator
+    public GraphBatch(
+            @JsonProperty("addNodes") List<String> addNodes,
+            @JsonProperty("removeNodes") List<String> removeNodes,
+            @JsonProperty("addEdgePairs") List<EdgePair> addEdgePairs,
+            @JsonProperty("removeEdgePairs") List<EdgePair> removeEdgePairs
+    ) {
+        this.addNodes = addNodes != null ? addNodes : new ArrayList<>();
+        this.removeNodes = removeNodes != null ? removeNodes : new ArrayList<>();
+        this.addEdgePairs = addEdgePairs != null ? addEdgePairs : new ArrayList<>();
+        this.removeEdgePairs = removeEdgePairs != null ? removeEdgePairs : new ArrayList<>();
+    }
+
+    public List<String> getAddNodes() {
+        return addNodes;
+    }
+
+    public List<String> getRemoveNodes() {
+        return removeNodes;
+    }
+
+    public List<EdgePair> getAddEdgePairs() {
+        return addEdgePairs;
+    }
+
+    public List<EdgePair> getRemoveEdgePairs() {
+        return removeEdgePairs;
+    }
+
+    public GraphBatch addNode(String label) {
+        addNodes.add(label);
+        return this;
+    }
+
+    public GraphBatch removeNode(String label) {
+        removeNodes.add(label);
+        return this;
+    }
+
+    public GraphBatch addEdgePair(String source, String destination) {
+        addEdgePairs.add(new EdgePair(source, destination));
+        return this;
+    }
+
+    public GraphBatch removeEdgePair(String source, String destination) {
+        removeEdgePairs.add(new EdgePair(source, destination));
+        return this;
+    }
+
+    @JsonIgnore
+    public int size() {
+        return addNodes.size() + removeNodes.size() + addEdgePairs.size() + removeEdgePairs.size();
+    }
+
+    // An edge in each direction between the two nodes, like GraphService.addEdgePair.
+    public static class EdgePair {
+        private final String source;
+        private final String destination;
+
+        @JsonCreator
+        public EdgePair(@JsonProperty("source") String source, @JsonProperty("destination") String destination) {
+            this.source = Objects.requireNonNull(source, "source");
+            this.destination = Objects.requireNonNull(destination, "destination");
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+    }
+}
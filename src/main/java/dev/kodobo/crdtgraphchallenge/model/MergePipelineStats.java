@@ -0,0 +1,38 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+// What the merge pipeline has done since the replica started, and how full its queue is right now.
+public class MergePipelineStats {
+    private final long accepted;
+    private final long rejected;
+    private final long batches;
+    private final int queued;
+    private final int capacity;
+
+    public MergePipelineStats(long accepted, long rejected, long batches, int queued, int capacity) {
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.batches = batches;
+        this.queued = queued;
+        this.capacity = capacity;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,20 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+// A node in the neighbourhood of another, and the fewest hops it takes to get to it from there.
+public class Neighbour {
+    private final String label;
+    private final int distance;
+
+    public Neighbour(String label, int distance) {
+        this.label = label;
+        this.distance = distance;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getDistance() {
+        return distance;
+    }
+}
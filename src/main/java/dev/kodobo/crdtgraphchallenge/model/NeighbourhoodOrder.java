@@ -0,0 +1,9 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+// How ReadOnlyGraph.neighbourhood orders the nodes it returns. Which nodes those are doesn't depend on it.
+public enum NeighbourhoodOrder {
+    // Nearest first, and in label order at the same distance.
+    DISTANCE,
+    // In label order, whatever their distance.
+    LABEL
+}
@@ -1,15 +1,24 @@
 package dev.kodobo.crdtgraphchallenge.model;
 
-import java.time.LocalDateTime;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import dev.kodobo.crdtgraphchallenge.helpers.TimestampDeserializer;
+
 import java.util.Objects;
 import java.util.UUID;
 
 public class Node {
     private final UUID nodeUuid;
     private final String label;
-    private final LocalDateTime timestamp;
+    // A hybrid logical clock timestamp, see HybridLogicalClock. Read from ISO-8601 as well, see TimestampDeserializer.
+    private final long timestamp;
 
-    public Node(UUID nodeUid, String label, LocalDateTime timestamp) {
+    @JsonCreator
+    public Node(
+            @JsonProperty("nodeUuid") UUID nodeUid,
+            @JsonProperty("label") String label,
+            @JsonProperty("timestamp") @JsonDeserialize(using = TimestampDeserializer.class) long timestamp) {
         this.nodeUuid = nodeUid;
         this.label = label;
         this.timestamp = timestamp;
@@ -23,7 +32,7 @@ public class Node {
         return label;
     }
 
-    public LocalDateTime getTimestamp() {
+    public long getTimestamp() {
         return timestamp;
     }
 
@@ -44,13 +53,20 @@ public class Node {
         return Objects.hash(getLabel());
     }
 
+    // Nodes are the keys of the result's adjacency list, which are serialised with toString.
+    @Override
+    public String toString() {
+        return label;
+    }
+
+    // On a tie the comparator is kept, like Edge does, so merging an entry we already hold changes nothing.
     public Node determineLatest(Node comparator) {
         if (comparator == null) {
             return this;
         }
-        return comparator.getTimestamp().isAfter(this.getTimestamp())
-                ? comparator
-                : this;
+        return this.getTimestamp() > comparator.getTimestamp()
+                ? this
+                : comparator;
     }
 
 }
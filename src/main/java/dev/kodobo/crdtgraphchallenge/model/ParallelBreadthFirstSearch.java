@@ -0,0 +1,105 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A level synchronous breadth first search over a CSR graph. Each level's frontier is split between the tasks of a
+// fork join pool, which claim the nodes they reach in a shared bitset so that every node is only taken once, and
+// whichever task claims a node records its parent and distance. The next frontier is whatever the tasks claimed.
+//
+// Which parent a node ends up with depends on which task got to it first, but it is always one level closer to the
+// root, so distances are the same as for the sequential search.
+final class ParallelBreadthFirstSearch {
+    // Frontier nodes below which a task expands them itself rather than splitting further.
+    private static final int SEQUENTIAL_THRESHOLD = 256;
+
+    private final CsrGraph g;
+    private final AtomicLongArray visited;
+    final int[] parents;
+    final int[] distances;
+
+    private ParallelBreadthFirstSearch(CsrGraph g) {
+        this.g = g;
+        this.visited = new AtomicLongArray((g.size() + 63) >>> 6);
+        this.parents = new int[g.size()];
+        this.distances = new int[g.size()];
+        Arrays.fill(parents, ReadOnlyGraph.UNVISITED);
+    }
+
+    static ParallelBreadthFirstSearch run(CsrGraph g, int root, ForkJoinPool pool) {
+        ParallelBreadthFirstSearch search = new ParallelBreadthFirstSearch(g);
+        search.claim(root);
+        search.parents[root] = ReadOnlyGraph.NO_PARENT;
+        int[] frontier = {root};
+        for (int level = 0; frontier.length > 0; level++) {
+            frontier = pool.invoke(search.new Expand(frontier, 0, frontier.length, level));
+        }
+        return search;
+    }
+
+    private boolean claim(int node) {
+        int word = node >>> 6;
+        long bit = 1L << node;
+        long current = visited.get(word);
+        while ((current & bit) == 0) {
+            if (visited.compareAndSet(word, current, current | bit)) {
+                return true;
+            }
+            current = visited.get(word);
+        }
+        return false;
+    }
+
+    private final class Expand extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] frontier;
+        private final int from;
+        private final int to;
+        private final int level;
+
+        private Expand(int[] frontier, int from, int to, int level) {
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.level = level;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                return expand();
+            }
+            int middle = (from + to) >>> 1;
+            Expand left = new Expand(frontier, from, middle, level);
+            left.fork();
+            int[] right = new Expand(frontier, middle, to, level).compute();
+            int[] leftNext = left.join();
+            int[] next = Arrays.copyOf(leftNext, leftNext.length + right.length);
+            System.arraycopy(right, 0, next, leftNext.length, right.length);
+            return next;
+        }
+
+        private int[] expand() {
+            int[] next = new int[Math.max(16, to - from)];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                int node = frontier[i];
+                for (int e = g.offsets[node]; e < g.offsets[node + 1]; e++) {
+                    int n = g.targets[e];
+                    if (claim(n)) {
+                        parents[n] = node;
+                        distances[n] = level + 1;
+                        if (count == next.length) {
+                            next = Arrays.copyOf(next, count * 2);
+                        }
+                        next[count++] = n;
+                    }
+                }
+            }
+            return Arrays.copyOf(next, count);
+        }
+    }
+}
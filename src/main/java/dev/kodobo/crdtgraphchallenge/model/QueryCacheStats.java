@@ -0,0 +1,51 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+// How well the query cache is doing since the replica started, and what it holds right now.
+public class QueryCacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long invalidations;
+    private final int entries;
+    private final long weight;
+    private final long graphVersion;
+
+    public QueryCacheStats(long hits, long misses, long evictions, long invalidations, int entries, long weight,
+                           long graphVersion) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.entries = entries;
+        this.weight = weight;
+        this.graphVersion = graphVersion;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getGraphVersion() {
+        return graphVersion;
+    }
+}
@@ -1,119 +1,531 @@
 package dev.kodobo.crdtgraphchallenge.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import dev.kodobo.crdtgraphchallenge.helpers.LabelDictionary;
+import dev.kodobo.crdtgraphchallenge.helpers.PersistentVector;
+
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 
+// An immutable snapshot of the resolved graph. GraphService derives the next snapshot from the current one with
+// withNode/withEdge on every write that changes the outcome, and publishes it in one go, so a reader always sees a
+// single consistent version without taking any locks. Snapshots share all of their unchanged structure.
 public class ReadOnlyGraph {
-    private final Map<Node, List<Node>> graph;
+    static final int UNVISITED = -2;
+    static final int NO_PARENT = -1;
 
-    public ReadOnlyGraph(Map<Node, List<Node>> graph) {
-        this.graph = graph;
+    private final LabelDictionary labels;
+    // Indexed by label id. A node's entry also records its live outgoing edges, including edges to nodes that aren't
+    // present (yet) - those are filtered out when read, so an edge appears as soon as both of its nodes do.
+    private final PersistentVector<Vertex> vertices;
+    private final int nodeCount;
+    // Live edges, whether or not both of their nodes are present.
+    private final int edgeCount;
+    // Counts the snapshots derived since the first, so a later snapshot always has a higher version. Only writes that
+    // change the outcome derive a new snapshot, so equal versions mean equal graphs.
+    private final long version;
+    // The connected components, carried over from the previous snapshot as long as writes only add to the graph, and
+    // otherwise built again the first time they're asked for.
+    private volatile Connectivity connectivity;
+    private volatile Map<Node, List<Node>> graph;
+    private volatile CsrGraph csr;
+
+    public ReadOnlyGraph(LabelDictionary labels) {
+        this(labels, PersistentVector.empty(), 0, 0, 0, Connectivity.EMPTY);
     }
 
+    private ReadOnlyGraph(LabelDictionary labels, PersistentVector<Vertex> vertices, int nodeCount, int edgeCount,
+                          long version, Connectivity connectivity) {
+        this.labels = labels;
+        this.vertices = vertices;
+        this.nodeCount = nodeCount;
+        this.edgeCount = edgeCount;
+        this.version = version;
+        this.connectivity = connectivity;
+    }
+
+    // The whole graph as an adjacency list, built the first time it's asked for on this snapshot.
     public Map<Node, List<Node>> getGraph() {
-        return graph;
+        Map<Node, List<Node>> result = graph;
+        if (result == null) {
+            Map<Node, List<Node>> built = new LinkedHashMap<>();
+            vertices.forEach((id, v) -> {
+                if (v.node != null) {
+                    built.put(v.node, connectedNodes(v));
+                }
+            });
+            result = Collections.unmodifiableMap(built);
+            graph = result;
+        }
+        return result;
+    }
+
+    // Walks the nodes in label id order from the given id without building the adjacency list, stopping after limit
+    // nodes. Returns the id to carry on from, or -1 once every node has been visited. Ids are never reused, so
+    // carrying on from the returned id over the same snapshot visits each node exactly once.
+    public int forEachNode(int from, int limit, BiConsumer<Node, List<Node>> action) {
+        int visited = 0;
+        for (int id = Math.max(from, 0); id < vertices.length(); id++) {
+            Vertex v = vertices.get(id);
+            if (v == null || v.node == null) {
+                continue;
+            }
+            if (visited == limit) {
+                return id;
+            }
+            action.accept(v.node, connectedNodes(v));
+            visited++;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return nodeCount;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version;
     }
 
     public Node getNode(String label) {
-        return graph.keySet()
-                .stream()
-                .filter(n -> n.getLabel().equals(label))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("No nodes matching the given label!"));
+        Node node = findNode(label);
+        if (node == null) {
+            throw new RuntimeException("No nodes matching the given label!");
+        }
+        return node;
     }
 
     public boolean hasNode(String label) {
-        return graph.keySet().stream().anyMatch(n -> n.getLabel().equals(label));
+        return findNode(label) != null;
     }
 
     public boolean hasEdge(String source, String destination) {
-        if (hasNode(source) && hasNode(destination)) {
-            return getConnectedNodes(source).contains(getNode(destination));
-        } else {
+        Vertex v = vertices.get(labels.find(source));
+        int destinationId = labels.find(destination);
+        return v != null && v.node != null
+                && hasNode(destination)
+                && Arrays.binarySearch(v.outgoing, destinationId) >= 0;
+    }
+
+    public List<Node> getConnectedNodes(String label) {
+        getNode(label);
+        return connectedNodes(vertices.get(labels.find(label)));
+    }
+
+    // Whether there is a route between the two nodes, one way or the other, going by their connected components rather
+    // than a search. For graphs whose edges come in pairs that is the same as there being a route from a to b.
+    public boolean areConnected(String a, String b) {
+        if (findNode(a) == null || findNode(b) == null) {
             return false;
         }
+        Connectivity components = connectivity();
+        return components.find(labels.find(a)) == components.find(labels.find(b));
     }
 
-    public List<Node> getConnectedNodes(String label) {
-        return graph.get(getNode(label));
+    // How many nodes are connected to the given one, itself included.
+    public int getComponentSize(String label) {
+        getNode(label);
+        return connectivity().size(labels.find(label));
+    }
+
+    public ReadOnlyGraph withNode(String label, Node node) {
+        int id = labels.idOf(label);
+        Vertex v = vertices.get(id);
+        Node current = v == null ? null : v.node;
+        if (current == node || (current != null && node != null && current.getTimestamp() == node.getTimestamp())) {
+            return this;
+        }
+        int[] outgoing = v == null ? Vertex.NONE : v.outgoing;
+        int incoming = v == null ? 0 : v.incoming;
+        int count = nodeCount + (node != null ? 1 : 0) - (current != null ? 1 : 0);
+        Connectivity components = connectivity;
+        if (components != null && (current == null) != (node == null)) {
+            // A node on its own joins or leaves as a component of one. One with edges only joins the components of
+            // nodes it has edges to, which we can't see for incoming edges.
+            if (incoming > 0 || (current != null && outgoing.length > 0)) {
+                components = null;
+            } else if (current == null) {
+                for (int target : outgoing) {
+                    if (findNode(target) != null) {
+                        components = components.union(id, target);
+                    }
+                }
+            }
+        }
+        return new ReadOnlyGraph(labels, vertices.set(id, Vertex.of(node, outgoing, incoming)), count, edgeCount,
+                version + 1, components);
+    }
+
+    public ReadOnlyGraph withEdge(String source, String destination, boolean live) {
+        int sourceId = labels.idOf(source);
+        int destinationId = labels.idOf(destination);
+        Vertex v = vertices.get(sourceId);
+        int[] outgoing = v == null ? Vertex.NONE : v.outgoing;
+        int at = Arrays.binarySearch(outgoing, destinationId);
+        if (live == at >= 0) {
+            return this;
+        }
+        int[] updated;
+        if (live) {
+            int insertAt = -at - 1;
+            updated = new int[outgoing.length + 1];
+            System.arraycopy(outgoing, 0, updated, 0, insertAt);
+            updated[insertAt] = destinationId;
+            System.arraycopy(outgoing, insertAt, updated, insertAt + 1, outgoing.length - insertAt);
+        } else {
+            updated = new int[outgoing.length - 1];
+            System.arraycopy(outgoing, 0, updated, 0, at);
+            System.arraycopy(outgoing, at + 1, updated, at, outgoing.length - at - 1);
+        }
+        PersistentVector<Vertex> next = vertices.set(sourceId,
+                Vertex.of(v == null ? null : v.node, updated, v == null ? 0 : v.incoming));
+        Vertex d = next.get(destinationId);
+        next = next.set(destinationId, Vertex.of(d == null ? null : d.node, d == null ? Vertex.NONE : d.outgoing,
+                (d == null ? 0 : d.incoming) + (live ? 1 : -1)));
+
+        Connectivity components = connectivity;
+        if (components != null && findNode(sourceId) != null && findNode(destinationId) != null) {
+            components = live ? components.union(sourceId, destinationId) : null;
+        }
+        return new ReadOnlyGraph(labels, next, nodeCount, edgeCount + (live ? 1 : -1), version + 1, components);
+    }
+
+    private Connectivity connectivity() {
+        Connectivity result = connectivity;
+        if (result == null) {
+            result = Connectivity.build(csr());
+            connectivity = result;
+        }
+        return result;
+    }
+
+    // Traversals run over a compressed copy of this snapshot, built the first time one is asked for on it.
+    private CsrGraph csr() {
+        CsrGraph result = csr;
+        if (result == null) {
+            int n = vertices.length();
+            Node[] nodes = new Node[n];
+            int[][] outgoing = new int[n][];
+            vertices.forEach((id, v) -> {
+                nodes[id] = v.node;
+                outgoing[id] = v.outgoing;
+            });
+            result = CsrGraph.build(nodes, outgoing);
+            csr = result;
+        }
+        return result;
+    }
+
+    private int requireNode(CsrGraph g, String label) {
+        int id = labels.find(label);
+        if (!g.contains(id)) {
+            throw new RuntimeException("No nodes matching the given label!");
+        }
+        return id;
+    }
+
+    private Node findNode(String label) {
+        return findNode(labels.find(label));
+    }
+
+    private Node findNode(int id) {
+        Vertex v = vertices.get(id);
+        return v == null ? null : v.node;
+    }
+
+    private List<Node> connectedNodes(Vertex v) {
+        List<Node> connected = new ArrayList<>(v.outgoing.length);
+        for (int id : v.outgoing) {
+            Vertex n = vertices.get(id);
+            if (n != null && n.node != null) {
+                connected.add(n.node);
+            }
+        }
+        return connected;
+    }
+
+    // The nodes within depth hops of the given one, leaving it out, nearest first and at most limit of them. Only the
+    // vertices on the way are looked at, so it costs as much as the neighbourhood rather than the whole graph. Nodes
+    // at the same distance are taken in label order, so when the limit falls part way through a hop the same ones are
+    // always kept.
+    public List<Neighbour> neighbourhood(String label, int depth, int limit, NeighbourhoodOrder order) {
+        if (depth < 0 || limit < 0) {
+            throw new IllegalArgumentException("The depth and limit of a neighbourhood can't be negative");
+        }
+        getNode(label);
+        Set<Integer> seen = new HashSet<>();
+        List<Integer> frontier = List.of(labels.find(label));
+        seen.addAll(frontier);
+        List<Neighbour> result = new ArrayList<>();
+        for (int distance = 1; distance <= depth && !frontier.isEmpty() && result.size() < limit; distance++) {
+            List<Node> reached = new ArrayList<>();
+            List<Integer> next = new ArrayList<>();
+            for (int id : frontier) {
+                for (int destination : vertices.get(id).outgoing) {
+                    Node node = findNode(destination);
+                    if (node != null && seen.add(destination)) {
+                        reached.add(node);
+                        next.add(destination);
+                    }
+                }
+            }
+            reached.sort(Comparator.comparing(Node::getLabel));
+            for (Node node : reached.subList(0, Math.min(reached.size(), limit - result.size()))) {
+                result.add(new Neighbour(node.getLabel(), distance));
+            }
+            frontier = next;
+        }
+        if (order == NeighbourhoodOrder.LABEL) {
+            result.sort(Comparator.comparing(Neighbour::getLabel));
+        }
+        return result;
     }
 
     public List<String> findShortestRoute(String root, String dest) {
-        Map<String, VisitedNode> visitedNodes = breadthFirstSearch(root);
-        Stack<String> routeStack = new Stack<>();
-        List<String> route = new LinkedList<>();
-        StringBuilder routeBuilder = new StringBuilder();
+        return findShortestRoute(root, dest, RouteSearch.FORWARD);
+    }
 
+    // The route runs from the destination back to the root, and is just the destination when it can't be reached.
+    public List<String> findShortestRoute(String root, String dest, RouteSearch search) {
+        CsrGraph g = csr();
+        int rootId = requireNode(g, root);
+        int destId = labels.find(dest);
+        List<String> route = new ArrayList<>();
         route.add(dest);
-        if (visitedNodes.containsKey(dest)) {
-            VisitedNode currentNode = visitedNodes.get(dest);
-            String parent = currentNode.getParentNode();
-            routeStack.push(dest);
-            while (!parent.equals("Start")) {
-                routeStack.push(parent);
-                route.add(parent);
-                currentNode = visitedNodes.get(parent);
-                parent = currentNode.getParentNode();
+        if (!g.contains(destId) || rootId == destId) {
+            return route;
+        }
+        // Nodes in different components can't have a route between them, which spares us a search that would visit
+        // the whole of the root's component. Not worth building the components for, though.
+        Connectivity components = connectivity;
+        if (components != null && components.find(rootId) != components.find(destId)) {
+            return route;
+        }
+        if (search == RouteSearch.BIDIRECTIONAL) {
+            bidirectionalRoute(g, rootId, destId, route);
+        } else {
+            int[] parents = breadthFirstSearch(g, rootId, null, destId);
+            if (parents[destId] != UNVISITED) {
+                for (int id = parents[destId]; id != NO_PARENT; id = parents[id]) {
+                    route.add(g.label(id));
+                }
             }
+        }
+        return route;
+    }
 
-            while(!routeStack.empty()) {
-                String node = routeStack.pop();
-                routeBuilder.append(node);
-                if (routeStack.size() > 0 ) {
-                   routeBuilder.append(" --> ");
+    // Searches forwards from the root and backwards from the destination at the same time, a whole level at a time
+    // from whichever side has the smaller frontier, until the two meet. On graphs with a small diameter each side
+    // only has to go about half way, which reaches far fewer nodes than a search from one end.
+    private static void bidirectionalRoute(CsrGraph g, int root, int dest, List<String> route) {
+        CsrGraph reversed = g.reversed();
+        int[] forward = new int[g.size()];
+        int[] backward = new int[g.size()];
+        int[] forwardDistances = new int[g.size()];
+        int[] backwardDistances = new int[g.size()];
+        Arrays.fill(forward, UNVISITED);
+        Arrays.fill(backward, UNVISITED);
+        forward[root] = NO_PARENT;
+        backward[dest] = NO_PARENT;
+        int[] forwardFrontier = {root};
+        int[] backwardFrontier = {dest};
+        int forwardCount = 1;
+        int backwardCount = 1;
+        // The edge where the two searches meet, from a node reached from the root to one reached from the destination.
+        // The first meeting isn't necessarily on a shortest route, but the shortest of those found while finishing
+        // the same level is.
+        int[] meeting = null;
+        int shortest = Integer.MAX_VALUE;
+
+        while (meeting == null && forwardCount > 0 && backwardCount > 0) {
+            if (forwardCount <= backwardCount) {
+                int[] next = new int[forwardCount];
+                int nextCount = 0;
+                for (int i = 0; i < forwardCount; i++) {
+                    int node = forwardFrontier[i];
+                    for (int e = g.offsets[node]; e < g.offsets[node + 1]; e++) {
+                        int n = g.targets[e];
+                        if (backward[n] != UNVISITED && forwardDistances[node] + 1 + backwardDistances[n] < shortest) {
+                            shortest = forwardDistances[node] + 1 + backwardDistances[n];
+                            meeting = new int[]{node, n};
+                        }
+                        if (forward[n] == UNVISITED) {
+                            forward[n] = node;
+                            forwardDistances[n] = forwardDistances[node] + 1;
+                            if (nextCount == next.length) {
+                                next = Arrays.copyOf(next, next.length * 2);
+                            }
+                            next[nextCount++] = n;
+                        }
+                    }
+                }
+                forwardFrontier = next;
+                forwardCount = nextCount;
+            } else {
+                int[] next = new int[backwardCount];
+                int nextCount = 0;
+                for (int i = 0; i < backwardCount; i++) {
+                    int node = backwardFrontier[i];
+                    for (int e = reversed.offsets[node]; e < reversed.offsets[node + 1]; e++) {
+                        int n = reversed.targets[e];
+                        if (forward[n] != UNVISITED && forwardDistances[n] + 1 + backwardDistances[node] < shortest) {
+                            shortest = forwardDistances[n] + 1 + backwardDistances[node];
+                            meeting = new int[]{n, node};
+                        }
+                        if (backward[n] == UNVISITED) {
+                            backward[n] = node;
+                            backwardDistances[n] = backwardDistances[node] + 1;
+                            if (nextCount == next.length) {
+                                next = Arrays.copyOf(next, next.length * 2);
+                            }
+                            next[nextCount++] = n;
+                        }
+                    }
                 }
+                backwardFrontier = next;
+                backwardCount = nextCount;
+            }
+        }
+
+        if (meeting != null) {
+            // From the destination back to where the searches met, then on back to the root.
+            Deque<String> towardsDest = new ArrayDeque<>();
+            for (int id = meeting[1]; id != dest; id = backward[id]) {
+                towardsDest.push(g.label(id));
+            }
+            route.addAll(towardsDest);
+            for (int id = meeting[0]; id != NO_PARENT; id = forward[id]) {
+                route.add(g.label(id));
             }
         }
-        System.out.println(routeBuilder);
-        return route;
     }
 
     public Set<String> depthFirstSearch(String root) {
+        CsrGraph g = csr();
         Set<String> visited = new LinkedHashSet<>();
-        Stack<String> path = new Stack<>();
-        path.push(root);
-
-        while (!path.empty()) {
-            String node = path.pop();
-            if (!visited.contains(node)) {
-                visited.add(node);
-                for (Node n : getConnectedNodes(node)) {
-                    path.push(n.getLabel());
+        BitSet seen = new BitSet(g.size());
+        int[] path = new int[16];
+        int top = 0;
+        path[top++] = requireNode(g, root);
+
+        while (top > 0) {
+            int node = path[--top];
+            if (!seen.get(node)) {
+                seen.set(node);
+                visited.add(g.label(node));
+                int end = g.offsets[node + 1];
+                if (top + end - g.offsets[node] > path.length) {
+                    path = Arrays.copyOf(path, Math.max(path.length * 2, top + end - g.offsets[node]));
+                }
+                for (int e = g.offsets[node]; e < end; e++) {
+                    path[top++] = g.targets[e];
                 }
             }
         }
         return visited;
     }
 
-    private Map<String, VisitedNode> breadthFirstSearch(String root) {
+    public Map<String, VisitedNode> breadthFirstSearch(String root) {
+        CsrGraph g = csr();
+        int rootId = requireNode(g, root);
+        int[] distances = new int[g.size()];
+        int[] parents = breadthFirstSearch(g, rootId, distances, NO_PARENT);
+        return visitedNodes(g, parents, distances);
+    }
+
+    // The same as breadthFirstSearch, with each level searched in parallel on the common fork join pool. Only worth it
+    // on large graphs, where the levels are wide enough to share out.
+    public Map<String, VisitedNode> parallelBreadthFirstSearch(String root) {
+        return parallelBreadthFirstSearch(root, ForkJoinPool.commonPool());
+    }
+
+    public Map<String, VisitedNode> parallelBreadthFirstSearch(String root, ForkJoinPool pool) {
+        CsrGraph g = csr();
+        ParallelBreadthFirstSearch search = ParallelBreadthFirstSearch.run(g, requireNode(g, root), pool);
+        return visitedNodes(g, search.parents, search.distances);
+    }
+
+    private static Map<String, VisitedNode> visitedNodes(CsrGraph g, int[] parents, int[] distances) {
         Map<String, VisitedNode> visited = new LinkedHashMap<>();
-        Queue<String> queue = new LinkedList<>();
+        for (int id = 0; id < parents.length; id++) {
+            if (parents[id] != UNVISITED) {
+                String parent = parents[id] == NO_PARENT ? "Start" : g.label(parents[id]);
+                visited.put(g.label(id), new VisitedNode(distances[id], parent));
+            }
+        }
+        return visited;
+    }
 
-        queue.add(root);
-        visited.put(root, new VisitedNode(0, "Start"));
+    // Returns the parent of every node reached from the root by id, NO_PARENT for the root itself and UNVISITED for
+    // the rest. Distances are filled in as well when an array is given. The search stops as soon as it reaches the
+    // target, if there is one, leaving whatever it hadn't reached by then UNVISITED.
+    private static int[] breadthFirstSearch(CsrGraph g, int root, int[] distances, int target) {
+        int[] parents = new int[g.size()];
+        Arrays.fill(parents, UNVISITED);
+        int[] queue = new int[g.size()];
+        int head = 0;
+        int tail = 0;
 
-        while (!queue.isEmpty()) {
-            String node = queue.poll();
+        queue[tail++] = root;
+        parents[root] = NO_PARENT;
+        if (distances != null) {
+            distances[root] = 0;
+        }
 
-            for (Node n : getConnectedNodes(node)) {
-                if (!visited.containsKey(n.getLabel())) {
-                    int distanceFromRoot = visited.get(node).getDistanceFromRoot() + 1;
-                    visited.put(n.getLabel(), new VisitedNode(distanceFromRoot, node));
-                    queue.add(n.getLabel());
+        while (head < tail) {
+            int node = queue[head++];
+            for (int e = g.offsets[node]; e < g.offsets[node + 1]; e++) {
+                int n = g.targets[e];
+                if (parents[n] == UNVISITED) {
+                    parents[n] = node;
+                    if (distances != null) {
+                        distances[n] = distances[node] + 1;
+                    }
+                    if (n == target) {
+                        return parents;
+                    }
+                    queue[tail++] = n;
                 }
             }
         }
-        return visited;
+        return parents;
     }
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
 
-        graph.keySet()
-                .forEach(node -> {
-                    builder.append(node.getLabel()).append(": [ ");
-                    graph.get(node).forEach(conn -> builder.append(conn.getLabel()).append(" "));
-                    builder.append("] \n");
-                });
+        getGraph().forEach((node, connected) -> {
+            builder.append(node.getLabel()).append(": [ ");
+            connected.forEach(conn -> builder.append(conn.getLabel()).append(" "));
+            builder.append("] \n");
+        });
         return builder.toString();
     }
+
+    private static final class Vertex {
+        private static final int[] NONE = new int[0];
+
+        private final Node node;
+        private final int[] outgoing;
+        // The number of live edges to this label, whether or not their sources are present.
+        private final int incoming;
+
+        private Vertex(Node node, int[] outgoing, int incoming) {
+            this.node = node;
+            this.outgoing = outgoing;
+            this.incoming = incoming;
+        }
+
+        // Labels that are neither present nor at either end of a live edge need no entry at all.
+        private static Vertex of(Node node, int[] outgoing, int incoming) {
+            return node == null && outgoing.length == 0 && incoming == 0 ? null : new Vertex(node, outgoing, incoming);
+        }
+    }
 }
@@ -0,0 +1,24 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+import java.util.List;
+import java.util.Map;
+
+// One page of the result, in the same shape as a serialised ReadOnlyGraph. The next page is asked for with the cursor,
+// which is null on the last page.
+public class ResultPage {
+    private final Map<Node, List<Node>> graph;
+    private final String next;
+
+    public ResultPage(Map<Node, List<Node>> graph, String next) {
+        this.graph = graph;
+        this.next = next;
+    }
+
+    public Map<Node, List<Node>> getGraph() {
+        return graph;
+    }
+
+    public String getNext() {
+        return next;
+    }
+}
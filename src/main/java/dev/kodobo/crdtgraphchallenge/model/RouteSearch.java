@@ -0,0 +1,10 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+// How ReadOnlyGraph.findShortestRoute looks for a route. Both find a shortest one, though not necessarily the same one
+// when there are several.
+public enum RouteSearch {
+    // Outwards from the root until the destination turns up.
+    FORWARD,
+    // From both ends at once until the two searches meet, for large graphs with a small diameter.
+    BIDIRECTIONAL
+}
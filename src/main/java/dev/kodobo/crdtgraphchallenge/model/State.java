@@ -1,8 +1,16 @@
 package dev.kodobo.crdtgraphchallenge.model;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @Component
 public class State {
@@ -11,77 +19,357 @@ public class State {
     private final Set<Edge> edgesAdded;
     private final Set<Edge> edgesRemoved;
 
+    // Secondary indexes over the four sets above so that lookups by label, and by source and destination label,
+    // don't have to scan. Edges are indexed by source label first, which also gives us each node's outgoing edges.
+    // The indexes are only kept consistent through the put methods below, which is why the sets are handed out
+    // read-only.
+    private final Map<String, Node> addedNodesByLabel = new ConcurrentHashMap<>();
+    private final Map<String, Node> removedNodesByLabel = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Edge>> addedEdgesBySource = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Edge>> removedEdgesBySource = new ConcurrentHashMap<>();
+
+    // Every put moves the state on to a new version and records the element against it, so that a delta holding
+    // everything that changed after a given version can be read straight off the tail of the change log.
+    // Each element only keeps its latest entry in the log.
+    private final AtomicLong version = new AtomicLong();
+    private final NavigableMap<Long, Change> changes = new ConcurrentSkipListMap<>();
+    private final Map<Change, Long> changeVersions = new ConcurrentHashMap<>();
+    // Puts share this lock so they can run side by side, reading the version takes it exclusively so that every
+    // change up to the version it returns is already in the log.
+    private final ReadWriteLock changeLogLock = new ReentrantReadWriteLock();
+
+    // Entries earlier than this may have been purged, once every replica had everything up to it. Nothing earlier
+    // than it can still be news to us, so merges ignore it rather than bring purged elements back.
+    private final AtomicLong compactedBelow = new AtomicLong();
+
+    // Hashes over every entry for anti-entropy. Only built once asked for, as most states are short lived deltas that
+    // are never compared, and kept up to date by every put and purge from then on.
+    private volatile StateDigest digest;
+
+    // All sets are safe to update from several threads at once, as long as writes to the same element are not
+    // interleaved - GraphService makes sure of that by locking on the element.
     public State() {
-        nodesAdded = new LinkedHashMap<>();
-        nodesRemoved = new LinkedHashMap<>();
-        edgesAdded = new LinkedHashSet<>();
-        edgesRemoved = new LinkedHashSet<>();
+        nodesAdded = new ConcurrentHashMap<>();
+        nodesRemoved = new ConcurrentHashMap<>();
+        edgesAdded = ConcurrentHashMap.newKeySet();
+        edgesRemoved = ConcurrentHashMap.newKeySet();
     }
 
+    @JsonCreator
     public State(
-            Map<UUID, Node> nodesAdded,
-            Map<UUID, Node> nodesRemoved,
-            Set<Edge> edgesAdded,
-            Set<Edge> edgesRemoved
+            @JsonProperty("nodesAdded") Map<UUID, Node> nodesAdded,
+            @JsonProperty("nodesRemoved") Map<UUID, Node> nodesRemoved,
+            @JsonProperty("edgesAdded") Set<Edge> edgesAdded,
+            @JsonProperty("edgesRemoved") Set<Edge> edgesRemoved
     ) {
-        this.nodesAdded = nodesAdded;
-        this.nodesRemoved = nodesRemoved;
-        this.edgesAdded = edgesAdded;
-        this.edgesRemoved = edgesRemoved;
+        this();
+        if (nodesAdded != null) nodesAdded.values().forEach(this::putAddedNode);
+        if (nodesRemoved != null) nodesRemoved.values().forEach(this::putRemovedNode);
+        if (edgesAdded != null) edgesAdded.forEach(this::putAddedEdge);
+        if (edgesRemoved != null) edgesRemoved.forEach(this::putRemovedEdge);
     }
 
     public Map<UUID, Node> getNodesAdded() {
-        return nodesAdded;
+        return Collections.unmodifiableMap(nodesAdded);
     }
 
     public Map<UUID, Node> getNodesRemoved() {
-        return nodesRemoved;
+        return Collections.unmodifiableMap(nodesRemoved);
     }
 
     public Set<Edge> getEdgesAdded() {
-        return edgesAdded;
+        return Collections.unmodifiableSet(edgesAdded);
     }
 
     public Set<Edge> getEdgesRemoved() {
-        return edgesRemoved;
+        return Collections.unmodifiableSet(edgesRemoved);
+    }
+
+    @JsonIgnore
+    public long getVersion() {
+        changeLogLock.writeLock().lock();
+        try {
+            return version.get();
+        } finally {
+            changeLogLock.writeLock().unlock();
+        }
+    }
+
+    // Returns a state containing the latest entry for every element that changed after the given version. Merging
+    // it into a replica that already holds that version leaves the replica identical to one merging the full state.
+    // A version we have never reached can only come from a previous run of this replica, so we send everything.
+    public State deltaSince(long sinceVersion) {
+        State delta = new State();
+        accept(sinceVersion > getVersion() ? 0 : sinceVersion, delta.asVisitor());
+        return delta;
+    }
+
+    public void accept(StateVisitor visitor) {
+        accept(0, visitor);
+    }
+
+    // Walks the latest entry of every element changed after the given version, oldest first.
+    public void accept(long sinceVersion, StateVisitor visitor) {
+        changes.tailMap(sinceVersion, false).values().forEach(c -> c.visit(visitor));
+    }
+
+    // Puts everything it is shown into this state, replacing whatever was there.
+    public StateVisitor asVisitor() {
+        return new StateVisitor() {
+            @Override
+            public void nodeAdded(Node node) {
+                putAddedNode(node);
+            }
+
+            @Override
+            public void nodeRemoved(Node node) {
+                putRemovedNode(node);
+            }
+
+            @Override
+            public void edgeAdded(Edge edge) {
+                putAddedEdge(edge);
+            }
+
+            @Override
+            public void edgeRemoved(Edge edge) {
+                putRemovedEdge(edge);
+            }
+        };
+    }
+
+    // Keeps whichever entry is the latest for each element it is shown, deciding as a merge would, so several states
+    // folded into this one merge into another state just as they would have one after the other.
+    public StateVisitor asFoldingVisitor() {
+        return new StateVisitor() {
+            @Override
+            public void nodeAdded(Node node) {
+                if (node.determineLatest(getAddedNode(node.getNodeUuid())) == node) {
+                    putAddedNode(node);
+                }
+            }
+
+            @Override
+            public void nodeRemoved(Node node) {
+                if (node.determineLatest(getRemovedNode(node.getNodeUuid())) == node) {
+                    putRemovedNode(node);
+                }
+            }
+
+            @Override
+            public void edgeAdded(Edge edge) {
+                if (edge.determineLatest(getAddedEdge(edge.getSourceNodeLabel(), edge.getDestinationNodeLabel())) == edge) {
+                    putAddedEdge(edge);
+                }
+            }
+
+            @Override
+            public void edgeRemoved(Edge edge) {
+                if (edge.determineLatest(getRemovedEdge(edge.getSourceNodeLabel(), edge.getDestinationNodeLabel())) == edge) {
+                    putRemovedEdge(edge);
+                }
+            }
+        };
+    }
+
+    @JsonIgnore
+    public long getCompactedBelow() {
+        return compactedBelow.get();
+    }
+
+    public void compactBelow(long timestamp) {
+        compactedBelow.accumulateAndGet(timestamp, Math::max);
+    }
+
+    @JsonIgnore
+    public StateDigest getDigest() {
+        StateDigest current = digest;
+        if (current != null) {
+            return current;
+        }
+        // Puts update the digest while holding the change log's read lock, so none can slip in between reading the
+        // log and publishing the digest.
+        changeLogLock.writeLock().lock();
+        try {
+            if (digest == null) {
+                StateDigest built = new StateDigest();
+                changes.values().forEach(c -> built.replace(c.type.ordinal(), null, c.element));
+                digest = built;
+            }
+            return digest;
+        } finally {
+            changeLogLock.writeLock().unlock();
+        }
+    }
+
+    // Returns a state holding every entry that falls into one of the given digest buckets.
+    public State bucketState(Collection<Integer> buckets) {
+        StateDigest current = getDigest();
+        State state = new State();
+        for (int bucket : buckets) {
+            for (Object element : current.getElements(bucket)) {
+                if (element instanceof Node) {
+                    String label = ((Node) element).getLabel();
+                    Optional.ofNullable(getAddedNode(label)).ifPresent(state::putAddedNode);
+                    Optional.ofNullable(getRemovedNode(label)).ifPresent(state::putRemovedNode);
+                } else {
+                    Edge edge = (Edge) element;
+                    String source = edge.getSourceNodeLabel();
+                    String destination = edge.getDestinationNodeLabel();
+                    Optional.ofNullable(getAddedEdge(source, destination)).ifPresent(state::putAddedEdge);
+                    Optional.ofNullable(getRemovedEdge(source, destination)).ifPresent(state::putRemovedEdge);
+                }
+            }
+        }
+        return state;
     }
 
     public Node getAddedNode(UUID nodeUid) {
-        return getNodesAdded().get(nodeUid);
+        return nodesAdded.get(nodeUid);
     }
 
     public Node getAddedNode(String label) {
-        return getNodesAdded().values().stream()
-                .filter(v -> v.equals(label))
-                .findFirst()
-                .orElse(null);
+        return addedNodesByLabel.get(label);
     }
 
     public Node getRemovedNode(UUID nodeUid) {
-        return getNodesRemoved().get(nodeUid);
+        return nodesRemoved.get(nodeUid);
     }
 
     public Node getRemovedNode(String label) {
-        return getNodesRemoved().values().stream()
-                .filter(v -> v.equals(label))
-                .findFirst()
-                .orElse(null);
+        return removedNodesByLabel.get(label);
     }
 
     public Edge getAddedEdge(String source, String destination) {
-        return getEdgesAdded()
-                .stream()
-                .filter(e -> e.equals(source, destination))
-                .findFirst()
-                .orElse(null);
+        return addedEdgesBySource.getOrDefault(source, Collections.emptyMap()).get(destination);
     }
 
     public Edge getRemovedEdge(String source, String destination) {
-        return getEdgesRemoved()
-                .stream()
-                .filter(e -> e.equals(source, destination))
-                .findFirst()
-                .orElse(null);
+        return removedEdgesBySource.getOrDefault(source, Collections.emptyMap()).get(destination);
+    }
+
+    public Collection<Edge> getAddedEdgesFrom(String source) {
+        return Collections.unmodifiableCollection(addedEdgesBySource.getOrDefault(source, Collections.emptyMap()).values());
+    }
+
+    public Collection<Edge> getRemovedEdgesFrom(String source) {
+        return Collections.unmodifiableCollection(removedEdgesBySource.getOrDefault(source, Collections.emptyMap()).values());
+    }
+
+    // The put methods replace any existing entry for the same element, whatever its timestamp. Deciding which
+    // entry should win is left to the caller.
+    public void putAddedNode(Node node) {
+        nodesAdded.put(node.getNodeUuid(), node);
+        Node previous = addedNodesByLabel.put(node.getLabel(), node);
+        recordChange(new Change(ChangeType.NODE_ADDED, node), previous);
+    }
+
+    public void putRemovedNode(Node node) {
+        nodesRemoved.put(node.getNodeUuid(), node);
+        Node previous = removedNodesByLabel.put(node.getLabel(), node);
+        recordChange(new Change(ChangeType.NODE_REMOVED, node), previous);
+    }
+
+    public void putAddedEdge(Edge edge) {
+        Edge previous = putEdge(edgesAdded, addedEdgesBySource, edge);
+        recordChange(new Change(ChangeType.EDGE_ADDED, edge), previous);
+    }
+
+    public void putRemovedEdge(Edge edge) {
+        Edge previous = putEdge(edgesRemoved, removedEdgesBySource, edge);
+        recordChange(new Change(ChangeType.EDGE_REMOVED, edge), previous);
+    }
+
+    // The purge methods drop an element's entry, which has to be the one given, from the sets, the indexes and the
+    // change log. Only for compaction, under the element's lock.
+    public void purgeAddedNode(Node node) {
+        if (addedNodesByLabel.get(node.getLabel()) == node) {
+            nodesAdded.remove(node.getNodeUuid());
+            addedNodesByLabel.remove(node.getLabel());
+            forgetChange(new Change(ChangeType.NODE_ADDED, node), getRemovedNode(node.getLabel()) == null);
+        }
+    }
+
+    public void purgeRemovedNode(Node node) {
+        if (removedNodesByLabel.get(node.getLabel()) == node) {
+            nodesRemoved.remove(node.getNodeUuid());
+            removedNodesByLabel.remove(node.getLabel());
+            forgetChange(new Change(ChangeType.NODE_REMOVED, node), getAddedNode(node.getLabel()) == null);
+        }
+    }
+
+    public void purgeAddedEdge(Edge edge) {
+        if (purgeEdge(edgesAdded, addedEdgesBySource, edge)) {
+            forgetChange(new Change(ChangeType.EDGE_ADDED, edge),
+                    getRemovedEdge(edge.getSourceNodeLabel(), edge.getDestinationNodeLabel()) == null);
+        }
+    }
+
+    public void purgeRemovedEdge(Edge edge) {
+        if (purgeEdge(edgesRemoved, removedEdgesBySource, edge)) {
+            forgetChange(new Change(ChangeType.EDGE_REMOVED, edge),
+                    getAddedEdge(edge.getSourceNodeLabel(), edge.getDestinationNodeLabel()) == null);
+        }
+    }
+
+    // The previous entry is whatever the change replaced, if anything.
+    private void recordChange(Change change, Object previous) {
+        changeLogLock.readLock().lock();
+        try {
+            long changeVersion = version.incrementAndGet();
+            changes.put(changeVersion, change);
+            // The map key matches any earlier change to the same element, so we drop that one from the log.
+            Long previousVersion = changeVersions.put(change, changeVersion);
+            if (previousVersion != null) {
+                changes.remove(previousVersion);
+            }
+            StateDigest current = digest;
+            if (current != null) {
+                current.replace(change.type.ordinal(), previous, change.element);
+            }
+        } finally {
+            changeLogLock.readLock().unlock();
+        }
+    }
+
+    // Last is set when the element has no other entries left.
+    private void forgetChange(Change change, boolean last) {
+        changeLogLock.readLock().lock();
+        try {
+            Long changeVersion = changeVersions.remove(change);
+            if (changeVersion != null) {
+                changes.remove(changeVersion);
+            }
+            StateDigest current = digest;
+            if (current != null) {
+                current.replace(change.type.ordinal(), change.element, null);
+                if (last) {
+                    current.forget(change.element);
+                }
+            }
+        } finally {
+            changeLogLock.readLock().unlock();
+        }
+    }
+
+    // The source's map in the index is left behind even when it empties, as other edges from the same source may be
+    // written concurrently under their own locks.
+    private boolean purgeEdge(Set<Edge> edges, Map<String, Map<String, Edge>> index, Edge edge) {
+        Map<String, Edge> fromSource = index.get(edge.getSourceNodeLabel());
+        if (fromSource == null || fromSource.get(edge.getDestinationNodeLabel()) != edge) {
+            return false;
+        }
+        fromSource.remove(edge.getDestinationNodeLabel());
+        edges.remove(edge);
+        return true;
+    }
+
+    private Edge putEdge(Set<Edge> edges, Map<String, Map<String, Edge>> index, Edge edge) {
+        // Edges are equal on their labels alone, so the old entry has to go before the new timestamp can go in.
+        edges.remove(edge);
+        edges.add(edge);
+        return index.computeIfAbsent(edge.getSourceNodeLabel(), k -> new ConcurrentHashMap<>())
+                .put(edge.getDestinationNodeLabel(), edge);
     }
 
     @Override
@@ -99,4 +387,39 @@ public class State {
     public int hashCode() {
         return Objects.hash(nodesAdded, nodesRemoved, edgesAdded, edgesRemoved);
     }
+
+    private enum ChangeType { NODE_ADDED, NODE_REMOVED, EDGE_ADDED, EDGE_REMOVED }
+
+    // Equal to any other change of the same type to the same element, whatever the timestamps involved.
+    private static final class Change {
+        private final ChangeType type;
+        private final Object element;
+
+        private Change(ChangeType type, Object element) {
+            this.type = type;
+            this.element = element;
+        }
+
+        private void visit(StateVisitor visitor) {
+            switch (type) {
+                case NODE_ADDED: visitor.nodeAdded((Node) element); break;
+                case NODE_REMOVED: visitor.nodeRemoved((Node) element); break;
+                case EDGE_ADDED: visitor.edgeAdded((Edge) element); break;
+                case EDGE_REMOVED: visitor.edgeRemoved((Edge) element); break;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Change change = (Change) o;
+            return type == change.type && element.equals(change.element);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, element);
+        }
+    }
 }
@@ -0,0 +1,47 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Everything a replica changed after some version it handed out earlier, along with the version the delta brings
+// the receiver up to. The receiver keeps that version and asks for the changes since it on its next sync.
+// The sender's clock is taken before the delta, so everything the sender wrote before it is either in this delta
+// or in one the receiver merged earlier, and everything it writes afterwards is later than it.
+public class StateDelta {
+    private final String replicaId;
+    private final long version;
+    private final long clock;
+    private final State state;
+
+    @JsonCreator
+    public StateDelta(
+            @JsonProperty("replicaId") String replicaId,
+            @JsonProperty("version") long version,
+            @JsonProperty("clock") long clock,
+            @JsonProperty("state") State state) {
+        this.replicaId = replicaId;
+        this.version = version;
+        this.clock = clock;
+        this.state = state;
+    }
+
+    public StateDelta(String replicaId, long version, State state) {
+        this(replicaId, version, 0, state);
+    }
+
+    public String getReplicaId() {
+        return replicaId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getClock() {
+        return clock;
+    }
+
+    public State getState() {
+        return state;
+    }
+}
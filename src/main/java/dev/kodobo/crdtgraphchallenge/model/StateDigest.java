@@ -0,0 +1,135 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+    A two level hash tree over every entry in a state, for finding the parts of two states that differ without
+    comparing them entry by entry.
+
+    Every element, that is every node label and every source and destination pair, falls into one of BUCKETS buckets
+    by a hash of its key alone, so its entries land in the same bucket on every replica. A bucket's hash combines the
+    hashes of the entries in it, each of which covers the kind of entry, the key and the timestamp. BRANCHES
+    consecutive buckets make up a branch, and the root combines the branches.
+
+    Hashes are combined with XOR, so adding, replacing or removing an entry only takes XOR-ing the difference into its
+    bucket, its branch and the root, and concurrent updates to different elements can't lose each other.
+
+    The elements in each bucket are tracked as well, so that the entries in a handful of buckets can be picked out
+    without going through the whole state. Only State updates the digest, as it changes.
+ */
+public class StateDigest {
+    public static final int BRANCHES = 64;
+    public static final int BUCKETS_PER_BRANCH = 64;
+    public static final int BUCKETS = BRANCHES * BUCKETS_PER_BRANCH;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray branches = new AtomicLongArray(BRANCHES);
+    private final AtomicLong root = new AtomicLong();
+    // Nodes and edges standing for their element, as they are equal on their labels alone.
+    private final Map<Integer, Set<Object>> elements = new ConcurrentHashMap<>();
+
+    public long getRoot() {
+        return root.get();
+    }
+
+    public long[] getBranches() {
+        long[] hashes = new long[BRANCHES];
+        for (int i = 0; i < BRANCHES; i++) {
+            hashes[i] = branches.get(i);
+        }
+        return hashes;
+    }
+
+    public long getBranch(int branch) {
+        return branches.get(branch);
+    }
+
+    // The hashes of the buckets making up the given branch.
+    public long[] getBuckets(int branch) {
+        long[] hashes = new long[BUCKETS_PER_BRANCH];
+        for (int i = 0; i < BUCKETS_PER_BRANCH; i++) {
+            hashes[i] = buckets.get(branch * BUCKETS_PER_BRANCH + i);
+        }
+        return hashes;
+    }
+
+    public Collection<Object> getElements(int bucket) {
+        return Collections.unmodifiableSet(elements.getOrDefault(bucket, Collections.emptySet()));
+    }
+
+    // Replaces an element's entry of the given type, a node or an edge, with another one. Either of them may be null,
+    // for an entry that is being added or removed.
+    void replace(int type, Object previous, Object next) {
+        Object element = next != null ? next : previous;
+        long key = keyOf(element);
+        int bucket = bucketOf(key);
+        long difference = entryHash(type, key, previous) ^ entryHash(type, key, next);
+        if (next != null) {
+            elements.computeIfAbsent(bucket, b -> ConcurrentHashMap.newKeySet()).add(element);
+        }
+        if (difference != 0) {
+            buckets.accumulateAndGet(bucket, difference, (a, b) -> a ^ b);
+            branches.accumulateAndGet(bucket / BUCKETS_PER_BRANCH, difference, (a, b) -> a ^ b);
+            root.accumulateAndGet(difference, (a, b) -> a ^ b);
+        }
+    }
+
+    // Once the element has no entries left at all.
+    void forget(Object element) {
+        Set<Object> inBucket = elements.get(bucketOf(keyOf(element)));
+        if (inBucket != null) {
+            inBucket.remove(element);
+        }
+    }
+
+    public static int bucketOf(long key) {
+        return (int) (mix(key) >>> (Long.SIZE - Integer.numberOfTrailingZeros(BUCKETS)));
+    }
+
+    public static long keyOf(String label) {
+        return fnv(FNV_OFFSET, label);
+    }
+
+    public static long keyOf(String source, String destination) {
+        return fnv(fnv(FNV_OFFSET, source) ^ 0xFF, destination) * FNV_PRIME;
+    }
+
+    private static long keyOf(Object element) {
+        if (element instanceof Node) {
+            return keyOf(((Node) element).getLabel());
+        }
+        Edge edge = (Edge) element;
+        return keyOf(edge.getSourceNodeLabel(), edge.getDestinationNodeLabel());
+    }
+
+    private static long entryHash(int type, long key, Object entry) {
+        if (entry == null) {
+            return 0;
+        }
+        long timestamp = entry instanceof Node ? ((Node) entry).getTimestamp() : ((Edge) entry).getTimestamp();
+        return mix(key + (type + 1) * 0x9E3779B97F4A7C15L + mix(timestamp));
+    }
+
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    // The splitmix64 finaliser, so that nearby keys and timestamps end up far apart.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,12 @@
+package dev.kodobo.crdtgraphchallenge.model;
+
+// Receives the entries of a State one at a time, in the order they were written.
+public interface StateVisitor {
+    void nodeAdded(Node node);
+
+    void nodeRemoved(Node node);
+
+    void edgeAdded(Edge edge);
+
+    void edgeRemoved(Edge edge);
+}
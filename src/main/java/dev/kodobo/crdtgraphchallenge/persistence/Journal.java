@@ -0,0 +1,58 @@
+package dev.kodobo.crdtgraphchallenge.persistence;
+
+import dev.kodobo.crdtgraphchallenge.model.Edge;
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.StateVisitor;
+
+// Is shown every entry written to the local state, whether by a local operation or a merge, so that the state can
+// be recovered after a restart.
+public interface Journal extends StateVisitor {
+    // The latest checkpoint, which can answer reads while recover() is still running. Null if there is none.
+    MappedSnapshot snapshot();
+
+    // Hands everything recorded by earlier runs to the visitor. Entries are only accepted once this has returned.
+    void recover(StateVisitor visitor);
+
+    // Returns once every entry shown to the journal so far is durable.
+    void sync();
+
+    // Entries have been purged from the state, which can't be recorded as entries, so the whole state is made
+    // durable as it now is, along with how far it was compacted. Otherwise recovery would bring the purged entries
+    // back, without the watermark that keeps older ones out.
+    void compacted();
+
+    Journal NONE = new Journal() {
+        @Override
+        public MappedSnapshot snapshot() {
+            return null;
+        }
+
+        @Override
+        public void recover(StateVisitor visitor) {
+        }
+
+        @Override
+        public void sync() {
+        }
+
+        @Override
+        public void compacted() {
+        }
+
+        @Override
+        public void nodeAdded(Node node) {
+        }
+
+        @Override
+        public void nodeRemoved(Node node) {
+        }
+
+        @Override
+        public void edgeAdded(Edge edge) {
+        }
+
+        @Override
+        public void edgeRemoved(Edge edge) {
+        }
+    };
+}
@@ -0,0 +1,402 @@
+package dev.kodobo.crdtgraphchallenge.persistence;
+
+import dev.kodobo.crdtgraphchallenge.helpers.FixedIdGenerator;
+import dev.kodobo.crdtgraphchallenge.model.Edge;
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateVisitor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+/*
+    The four collections of a State laid out so they can be read in place from a memory mapped file, without
+    deserialising anything first.
+
+    Every label that appears in the state is given an id by its position in the labels sorted by their UTF-8 bytes,
+    so a label is found by binary search. The add and remove timestamps of each node are stored by id, and the edges
+    of each set as adjacency arrays: the edges from a node are a range of target ids, sorted so a single edge is
+    found by binary search, alongside their timestamps.
+
+    magic | format version | label count | max timestamp | compacted below | added edge count | removed edge count
+    label offsets      int[labels + 1]
+    node added         long[labels]        NONE if absent
+    node removed       long[labels]
+    added edge index   int[labels + 1]     the range of added targets from each node
+    added targets      int[added edges]
+    added timestamps   long[added edges]
+    removed edge index, targets, timestamps as above
+    label bytes
+
+    Queries resolve the state on the fly the same way GraphService does, so the snapshot answers exactly as the graph
+    built from it would. A single mapping is limited to 2 GB.
+ */
+public class MappedSnapshot {
+    private static final int MAGIC = 0x43534E50;
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER = 3 * Integer.BYTES + 2 * Long.BYTES + 2 * Integer.BYTES;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final ByteBuffer buffer;
+    private final int labelCount;
+    private final long maxTimestamp;
+    private final long compactedBelow;
+    private final int labelOffsets;
+    private final int nodesAdded;
+    private final int nodesRemoved;
+    private final EdgeSection edgesAdded;
+    private final EdgeSection edgesRemoved;
+    private final int labelBytes;
+    private final FixedIdGenerator idGenerator = new FixedIdGenerator();
+
+    private MappedSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a state snapshot");
+        }
+        labelCount = buffer.getInt(8);
+        maxTimestamp = buffer.getLong(12);
+        compactedBelow = buffer.getLong(20);
+        int addedEdgeCount = buffer.getInt(28);
+        int removedEdgeCount = buffer.getInt(32);
+
+        labelOffsets = HEADER;
+        nodesAdded = labelOffsets + (labelCount + 1) * Integer.BYTES;
+        nodesRemoved = nodesAdded + labelCount * Long.BYTES;
+        edgesAdded = new EdgeSection(nodesRemoved + labelCount * Long.BYTES, addedEdgeCount);
+        edgesRemoved = new EdgeSection(edgesAdded.end, removedEdgeCount);
+        labelBytes = edgesRemoved.end;
+        if (labelBytes + buffer.getInt(labelOffsets + labelCount * Integer.BYTES) != buffer.capacity()) {
+            throw new IOException("Truncated state snapshot");
+        }
+    }
+
+    public static MappedSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedSnapshot(buffer);
+        }
+    }
+
+    public static void write(State state, Path path) throws IOException {
+        write(state, path, Integer.MAX_VALUE);
+    }
+
+    // Fails without writing anything if the snapshot would come to more than maxSize bytes, which is as much as a
+    // single mapping and the int offsets in it can address. The log it would have covered is then kept.
+    static void write(State state, Path path, long maxSize) throws IOException {
+        // Collected up front so that entries written to the state while this runs cannot leave the counts behind.
+        List<Node> added = new ArrayList<>(state.getNodesAdded().values());
+        List<Node> removed = new ArrayList<>(state.getNodesRemoved().values());
+        List<Edge> addedEdges = new ArrayList<>(state.getEdgesAdded());
+        List<Edge> removedEdges = new ArrayList<>(state.getEdgesRemoved());
+        // Read after the entries: anything compaction purged before they were collected is then covered by it.
+        long compactedBelow = state.getCompactedBelow();
+
+        Map<String, byte[]> encoded = new HashMap<>();
+        Consumer<String> collect = label -> encoded.computeIfAbsent(label, l -> l.getBytes(StandardCharsets.UTF_8));
+        added.forEach(node -> collect.accept(node.getLabel()));
+        removed.forEach(node -> collect.accept(node.getLabel()));
+        for (Edge edge : addedEdges) {
+            collect.accept(edge.getSourceNodeLabel());
+            collect.accept(edge.getDestinationNodeLabel());
+        }
+        for (Edge edge : removedEdges) {
+            collect.accept(edge.getSourceNodeLabel());
+            collect.accept(edge.getDestinationNodeLabel());
+        }
+        List<String> labels = new ArrayList<>(encoded.keySet());
+        labels.sort((a, b) -> Arrays.compareUnsigned(encoded.get(a), encoded.get(b)));
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) {
+            ids.put(labels.get(i), i);
+        }
+
+        long labelSize = 0;
+        for (byte[] label : encoded.values()) {
+            labelSize += label.length;
+        }
+        long size = HEADER + (labels.size() + 1L) * Integer.BYTES + 2L * labels.size() * Long.BYTES
+                + 2 * (labels.size() + 1L) * Integer.BYTES
+                + ((long) addedEdges.size() + removedEdges.size()) * (Integer.BYTES + Long.BYTES) + labelSize;
+        if (size > maxSize) {
+            throw new IOException("The state needs a " + size + " byte snapshot, more than the " + maxSize
+                    + " bytes one can hold");
+        }
+
+        long[] nodeAdded = timestamps(added, ids, labels.size());
+        long[] nodeRemoved = timestamps(removed, ids, labels.size());
+        long maxTimestamp = NONE;
+        for (Node node : added) {
+            maxTimestamp = Math.max(maxTimestamp, node.getTimestamp());
+        }
+        for (Node node : removed) {
+            maxTimestamp = Math.max(maxTimestamp, node.getTimestamp());
+        }
+        for (Edge edge : addedEdges) {
+            maxTimestamp = Math.max(maxTimestamp, edge.getTimestamp());
+        }
+        for (Edge edge : removedEdges) {
+            maxTimestamp = Math.max(maxTimestamp, edge.getTimestamp());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(labels.size());
+            out.writeLong(maxTimestamp);
+            out.writeLong(compactedBelow);
+            out.writeInt(addedEdges.size());
+            out.writeInt(removedEdges.size());
+            int offset = 0;
+            for (String label : labels) {
+                out.writeInt(offset);
+                offset += encoded.get(label).length;
+            }
+            out.writeInt(offset);
+            for (long timestamp : nodeAdded) {
+                out.writeLong(timestamp);
+            }
+            for (long timestamp : nodeRemoved) {
+                out.writeLong(timestamp);
+            }
+            writeEdges(out, addedEdges, ids, labels.size());
+            writeEdges(out, removedEdges, ids, labels.size());
+            for (String label : labels) {
+                out.write(encoded.get(label));
+            }
+        }
+    }
+
+    // The latest timestamp anywhere in the snapshot, which a replica's clock has to be ahead of before it writes.
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    // See State.getCompactedBelow().
+    public long getCompactedBelow() {
+        return compactedBelow;
+    }
+
+    public boolean hasNode(String label) {
+        return isLive(find(label));
+    }
+
+    public boolean hasEdge(String source, String destination) {
+        int sourceId = find(source);
+        int destinationId = find(destination);
+        return isLive(sourceId) && isLive(destinationId) && isLive(sourceId, destinationId);
+    }
+
+    public List<Node> getConnectedNodes(String label) {
+        int id = find(label);
+        if (!isLive(id)) {
+            throw new RuntimeException("No nodes matching the given label!");
+        }
+        return connectedNodes(id);
+    }
+
+    // Each node in the graph along with the nodes it is connected to, in label order.
+    public void forEachNode(NodeConsumer consumer) {
+        for (int id = 0; id < labelCount; id++) {
+            if (isLive(id)) {
+                consumer.accept(node(id), connectedNodes(id));
+            }
+        }
+    }
+
+    public interface NodeConsumer {
+        void accept(Node node, List<Node> connected);
+    }
+
+    // Shows the visitor every entry of the state the snapshot was taken of.
+    public void accept(StateVisitor visitor) {
+        for (int id = 0; id < labelCount; id++) {
+            long added = buffer.getLong(nodesAdded + id * Long.BYTES);
+            if (added != NONE) {
+                String label = label(id);
+                visitor.nodeAdded(new Node(idGenerator.generateId(label), label, added));
+            }
+        }
+        for (int id = 0; id < labelCount; id++) {
+            long removed = buffer.getLong(nodesRemoved + id * Long.BYTES);
+            if (removed != NONE) {
+                String label = label(id);
+                visitor.nodeRemoved(new Node(idGenerator.generateId(label), label, removed));
+            }
+        }
+        edgesAdded.forEach(visitor::edgeAdded);
+        edgesRemoved.forEach(visitor::edgeRemoved);
+    }
+
+    private List<Node> connectedNodes(int id) {
+        List<Node> connected = new ArrayList<>();
+        for (int i = edgesAdded.from(id), end = edgesAdded.from(id + 1); i < end; i++) {
+            int target = edgesAdded.target(i);
+            if (isLive(target) && edgesAdded.timestamp(i) > edgesRemoved.timestamp(id, target)) {
+                connected.add(node(target));
+            }
+        }
+        return connected;
+    }
+
+    // An element is live if it was added after it was last removed, with equal timestamps favouring the removal.
+    private boolean isLive(int id) {
+        if (id < 0) {
+            return false;
+        }
+        long added = buffer.getLong(nodesAdded + id * Long.BYTES);
+        return added != NONE && added > buffer.getLong(nodesRemoved + id * Long.BYTES);
+    }
+
+    private boolean isLive(int source, int destination) {
+        long added = edgesAdded.timestamp(source, destination);
+        return added != NONE && added > edgesRemoved.timestamp(source, destination);
+    }
+
+    private Node node(int id) {
+        String label = label(id);
+        return new Node(idGenerator.generateId(label), label, buffer.getLong(nodesAdded + id * Long.BYTES));
+    }
+
+    private int find(String label) {
+        byte[] key = label.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = labelCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareLabel(mid, key);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareLabel(int id, byte[] key) {
+        int start = labelBytes + buffer.getInt(labelOffsets + id * Integer.BYTES);
+        int length = labelBytes + buffer.getInt(labelOffsets + (id + 1) * Integer.BYTES) - start;
+        for (int i = 0, n = Math.min(length, key.length); i < n; i++) {
+            int comparison = Byte.toUnsignedInt(buffer.get(start + i)) - Byte.toUnsignedInt(key[i]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String label(int id) {
+        int start = labelBytes + buffer.getInt(labelOffsets + id * Integer.BYTES);
+        int end = labelBytes + buffer.getInt(labelOffsets + (id + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        buffer.duplicate().position(start).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long[] timestamps(List<Node> nodes, Map<String, Integer> ids, int labelCount) {
+        long[] timestamps = new long[labelCount];
+        Arrays.fill(timestamps, NONE);
+        for (Node node : nodes) {
+            timestamps[ids.get(node.getLabel())] = node.getTimestamp();
+        }
+        return timestamps;
+    }
+
+    private static void writeEdges(DataOutputStream out, List<Edge> edges, Map<String, Integer> ids, int labelCount)
+            throws IOException {
+        long[] keys = new long[edges.size()];
+        long[] timestamps = new long[edges.size()];
+        Integer[] order = new Integer[edges.size()];
+        int[] index = new int[labelCount + 1];
+        for (int i = 0; i < edges.size(); i++) {
+            Edge edge = edges.get(i);
+            int source = ids.get(edge.getSourceNodeLabel());
+            keys[i] = (long) source << 32 | ids.get(edge.getDestinationNodeLabel());
+            timestamps[i] = edge.getTimestamp();
+            order[i] = i;
+            index[source + 1]++;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+        for (int id = 0; id < labelCount; id++) {
+            index[id + 1] += index[id];
+        }
+        for (int offset : index) {
+            out.writeInt(offset);
+        }
+        for (int i : order) {
+            out.writeInt((int) keys[i]);
+        }
+        for (int i : order) {
+            out.writeLong(timestamps[i]);
+        }
+    }
+
+    private final class EdgeSection {
+        private final int index;
+        private final int targets;
+        private final int timestamps;
+        private final int end;
+
+        private EdgeSection(int start, int count) {
+            this.index = start;
+            this.targets = index + (labelCount + 1) * Integer.BYTES;
+            this.timestamps = targets + count * Integer.BYTES;
+            this.end = timestamps + count * Long.BYTES;
+        }
+
+        private int from(int source) {
+            return buffer.getInt(index + source * Integer.BYTES);
+        }
+
+        private int target(int i) {
+            return buffer.getInt(targets + i * Integer.BYTES);
+        }
+
+        private long timestamp(int i) {
+            return buffer.getLong(timestamps + i * Long.BYTES);
+        }
+
+        private long timestamp(int source, int destination) {
+            int low = from(source);
+            int high = from(source + 1) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int target = target(mid);
+                if (target < destination) {
+                    low = mid + 1;
+                } else if (target > destination) {
+                    high = mid - 1;
+                } else {
+                    return timestamp(mid);
+                }
+            }
+            return NONE;
+        }
+
+        private void forEach(Consumer<Edge> consumer) {
+            for (int source = 0; source < labelCount; source++) {
+                String label = null;
+                for (int i = from(source), end = from(source + 1); i < end; i++) {
+                    if (label == null) {
+                        label = label(source);
+                    }
+                    consumer.accept(new Edge(label, label(target(i)), timestamp(i)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package dev.kodobo.crdtgraphchallenge.persistence;
+
+import dev.kodobo.crdtgraphchallenge.config.PersistenceProperties;
+import dev.kodobo.crdtgraphchallenge.helpers.FixedIdGenerator;
+import dev.kodobo.crdtgraphchallenge.model.Edge;
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/*
+    An append-only log of every entry written to the local state, plus periodic checkpoints of the whole state.
+
+    Entries are buffered as they are shown to the log and written out by a single flusher thread. Whatever has
+    accumulated while one fsync was in progress goes out together with the next one, so however many requests are
+    writing at once, each only waits for about one fsync and the disk is never asked for more than one at a time.
+
+    The log is split into numbered segments, each a sequence of frames holding one batch apiece behind its length
+    and CRC. A checkpoint starts a new segment, writes the state out as a MappedSnapshot, and names the file after
+    the last segment it covers: every entry in that segment or an earlier one was already in the state when it was
+    written. Recovery loads the latest checkpoint and replays the segments after it. The checkpoint is mapped rather
+    than read, so it can answer reads before recovery has got through it. A frame that was only partly
+    written when the process died fails its CRC and ends the replay of its segment.
+
+    Replaying an entry twice, or an entry the checkpoint already contains, is harmless as recovery merges entries on
+    a last write wins basis like any other.
+ */
+@Component
+@ConditionalOnProperty(prefix = "crdt.persistence", name = "enabled", havingValue = "true")
+public class WriteAheadLog implements Journal, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".snapshot";
+    private static final String CHECKPOINT_TEMP = "checkpoint.tmp";
+    private static final int FRAME_HEADER = 2 * Integer.BYTES;
+
+    private static final int NODE_ADDED = 0;
+    private static final int NODE_REMOVED = 1;
+    private static final int EDGE_ADDED = 2;
+    private static final int EDGE_REMOVED = 3;
+
+    private final State state;
+    private final Path directory;
+    private final Duration checkpointInterval;
+    private final FixedIdGenerator idGenerator = new FixedIdGenerator();
+
+    // Entries waiting for the next group commit, along with the counters below, are guarded by this.
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pending = new DataOutputStream(pendingBytes);
+    private long appended;
+    private long durable;
+    private long checkpointed;
+    private IOException failure;
+    private boolean accepting;
+    private boolean closed;
+
+    // The segment being appended to is swapped by checkpoints while the flusher writes to it.
+    private final Object segmentLock = new Object();
+    private FileChannel segment;
+    private long segmentNumber;
+    // Checkpoints are taken on a schedule and after compaction, one at a time.
+    private final Object checkpointLock = new Object();
+
+    private Thread flusher;
+    private ScheduledExecutorService checkpointer;
+
+    private long snapshotCovers = -1;
+    private MappedSnapshot snapshot;
+    private boolean opened;
+
+    public WriteAheadLog(State state, PersistenceProperties properties) {
+        this.state = state;
+        this.directory = properties.getDirectory();
+        this.checkpointInterval = properties.getCheckpointInterval();
+    }
+
+    @Override
+    public synchronized MappedSnapshot snapshot() {
+        if (!opened) {
+            opened = true;
+            try {
+                Files.createDirectories(directory);
+                OptionalLong checkpoint = latest(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+                if (checkpoint.isPresent()) {
+                    snapshot = MappedSnapshot.open(path(CHECKPOINT_PREFIX, checkpoint.getAsLong(), CHECKPOINT_SUFFIX));
+                    snapshotCovers = checkpoint.getAsLong();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the latest checkpoint in " + directory, e);
+            }
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void recover(StateVisitor visitor) {
+        MappedSnapshot checkpoint = snapshot();
+        try {
+            if (checkpoint != null) {
+                checkpoint.accept(visitor);
+            }
+            List<Long> segments = numbers(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            for (long number : segments) {
+                if (number > snapshotCovers) {
+                    replay(path(SEGMENT_PREFIX, number, SEGMENT_SUFFIX), visitor);
+                }
+            }
+            removeObsolete(snapshotCovers);
+            // Only now, as recovery has to take every entry, however old.
+            if (checkpoint != null) {
+                state.compactBelow(checkpoint.getCompactedBelow());
+            }
+
+            // Earlier segments are never appended to again, so a torn frame at the end of one stays harmless.
+            long last = segments.isEmpty() ? snapshotCovers : segments.get(segments.size() - 1);
+            synchronized (segmentLock) {
+                segmentNumber = Math.max(last, snapshotCovers) + 1;
+                segment = open(segmentNumber);
+            }
+            synchronized (this) {
+                accepting = true;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not recover state from " + directory, e);
+        }
+
+        flusher = new Thread(this::flush, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = checkpointInterval.toMillis();
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Checkpoint failed, the log is kept until the next one succeeds", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void nodeAdded(Node node) {
+        append(NODE_ADDED, node.getLabel(), null, node.getTimestamp());
+    }
+
+    @Override
+    public void nodeRemoved(Node node) {
+        append(NODE_REMOVED, node.getLabel(), null, node.getTimestamp());
+    }
+
+    @Override
+    public void edgeAdded(Edge edge) {
+        append(EDGE_ADDED, edge.getSourceNodeLabel(), edge.getDestinationNodeLabel(), edge.getTimestamp());
+    }
+
+    @Override
+    public void edgeRemoved(Edge edge) {
+        append(EDGE_REMOVED, edge.getSourceNodeLabel(), edge.getDestinationNodeLabel(), edge.getTimestamp());
+    }
+
+    private synchronized void append(int type, String first, String second, long timestamp) {
+        if (!accepting || closed) {
+            throw new IllegalStateException("The write-ahead log is not open");
+        }
+        try {
+            pending.writeByte(type);
+            pending.writeUTF(first);
+            if (second != null) {
+                pending.writeUTF(second);
+            }
+            pending.writeLong(timestamp);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        appended++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void sync() {
+        long target = appended;
+        while (durable < target) {
+            if (failure != null) {
+                throw new UncheckedIOException("The write-ahead log could not be written", failure);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the write-ahead log", e);
+            }
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            byte[] batch;
+            long upTo;
+            synchronized (this) {
+                while (pendingBytes.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pendingBytes.size() == 0) {
+                    return;
+                }
+                batch = pendingBytes.toByteArray();
+                pendingBytes.reset();
+                upTo = appended;
+            }
+            try {
+                synchronized (segmentLock) {
+                    write(segment, batch);
+                    segment.force(false);
+                }
+            } catch (IOException e) {
+                log.error("Could not write to the write-ahead log", e);
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                durable = upTo;
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void compacted() {
+        try {
+            checkpoint(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not checkpoint the compacted state to " + directory, e);
+        }
+    }
+
+    // Entries appended while the checkpoint is written go to the new segment, and may also make it into the
+    // checkpoint itself.
+    public void checkpoint() throws IOException {
+        checkpoint(false);
+    }
+
+    // Skipped if nothing has been appended since the last one, unless forced.
+    private void checkpoint(boolean force) throws IOException {
+        synchronized (checkpointLock) {
+            writeCheckpoint(force);
+        }
+    }
+
+    private void writeCheckpoint(boolean force) throws IOException {
+        long upTo;
+        synchronized (this) {
+            if (appended == checkpointed && !force) {
+                return;
+            }
+            upTo = appended;
+        }
+        long covered;
+        synchronized (segmentLock) {
+            covered = segmentNumber;
+            segment.force(false);
+            segment.close();
+            segmentNumber++;
+            segment = open(segmentNumber);
+        }
+
+        Path temp = directory.resolve(CHECKPOINT_TEMP);
+        MappedSnapshot.write(state, temp);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, path(CHECKPOINT_PREFIX, covered, CHECKPOINT_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        removeObsolete(covered);
+        synchronized (this) {
+            checkpointed = upTo;
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        if (checkpointer != null) {
+            checkpointer.shutdown();
+        }
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            if (flusher != null) {
+                flusher.join();
+            }
+            if (checkpointer != null) {
+                checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (segmentLock) {
+            try {
+                if (segment != null) {
+                    segment.close();
+                }
+            } catch (IOException e) {
+                log.warn("Could not close the write-ahead log", e);
+            }
+        }
+    }
+
+    private void replay(Path path, StateVisitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            byte[] batch;
+            while ((batch = readFrame(in, path)) != null) {
+                replayBatch(batch, visitor);
+            }
+        }
+    }
+
+    // Null at the end of the segment, or at a frame that was only partly written.
+    private static byte[] readFrame(DataInputStream in, Path path) throws IOException {
+        in.mark(1);
+        if (in.read() < 0) {
+            return null;
+        }
+        in.reset();
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            byte[] batch = length >= 0 ? in.readNBytes(length) : null;
+            if (batch != null && batch.length == length && checksum(batch) == checksum) {
+                return batch;
+            }
+        } catch (EOFException e) {
+            // the frame header itself was cut short
+        }
+        log.warn("Ignoring the incomplete end of {}", path.getFileName());
+        return null;
+    }
+
+    private void replayBatch(byte[] batch, StateVisitor visitor) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+        while (in.available() > 0) {
+            int type = in.readByte();
+            String first = in.readUTF();
+            switch (type) {
+                case NODE_ADDED:
+                    visitor.nodeAdded(new Node(idGenerator.generateId(first), first, in.readLong()));
+                    break;
+                case NODE_REMOVED:
+                    visitor.nodeRemoved(new Node(idGenerator.generateId(first), first, in.readLong()));
+                    break;
+                case EDGE_ADDED:
+                    visitor.edgeAdded(new Edge(first, in.readUTF(), in.readLong()));
+                    break;
+                case EDGE_REMOVED:
+                    visitor.edgeRemoved(new Edge(first, in.readUTF(), in.readLong()));
+                    break;
+                default:
+                    throw new IOException("Unknown log entry type " + type);
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] batch) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_HEADER + batch.length);
+        buffer.putInt(batch.length).putInt(checksum(batch)).put(batch).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int checksum(byte[] batch) {
+        CRC32 crc = new CRC32();
+        crc.update(batch);
+        return (int) crc.getValue();
+    }
+
+    private FileChannel open(long number) throws IOException {
+        FileChannel channel = FileChannel.open(path(SEGMENT_PREFIX, number, SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        syncDirectory();
+        return channel;
+    }
+
+    // Segments and checkpoints superseded by the checkpoint covering up to the given segment.
+    private void removeObsolete(long covered) throws IOException {
+        for (long number : numbers(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (number <= covered) {
+                Files.deleteIfExists(path(SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+            }
+        }
+        for (long number : numbers(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)) {
+            if (number < covered) {
+                Files.deleteIfExists(path(CHECKPOINT_PREFIX, number, CHECKPOINT_SUFFIX));
+            }
+        }
+        Files.deleteIfExists(directory.resolve(CHECKPOINT_TEMP));
+    }
+
+    // Makes the creation, renaming and removal of files durable. Not every platform allows opening a directory.
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Could not sync {}", directory, e);
+        }
+    }
+
+    private Path path(String prefix, long number, String suffix) {
+        return directory.resolve(String.format("%s%020d%s", prefix, number, suffix));
+    }
+
+    private OptionalLong latest(String prefix, String suffix) throws IOException {
+        List<Long> numbers = numbers(prefix, suffix);
+        return numbers.isEmpty() ? OptionalLong.empty() : OptionalLong.of(numbers.get(numbers.size() - 1));
+    }
+
+    private List<Long> numbers(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .map(name -> Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
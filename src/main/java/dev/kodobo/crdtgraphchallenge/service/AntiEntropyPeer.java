@@ -0,0 +1,17 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.model.DigestSummary;
+import dev.kodobo.crdtgraphchallenge.model.State;
+
+import java.util.List;
+
+// The other side of an anti-entropy round.
+public interface AntiEntropyPeer {
+    DigestSummary getDigest();
+
+    DigestSummary getDigest(int branch);
+
+    State getBuckets(List<Integer> buckets);
+
+    void merge(State state);
+}
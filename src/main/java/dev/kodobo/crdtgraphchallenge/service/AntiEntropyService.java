@@ -0,0 +1,83 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.model.DigestSummary;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDigest;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+    Brings two replicas back in line by comparing state digests instead of whole states. The roots are compared
+    first, then the branches that differ, then the buckets in those, and only the entries in buckets that differ
+    change hands - in both directions, so a round leaves both replicas holding the same entries for them.
+
+    Two replicas that agree cost a single round trip, however large the graph, and otherwise the cost grows with
+    how many buckets differ rather than with the size of the state.
+ */
+@Service
+public class AntiEntropyService {
+    private final GraphService graphService;
+
+    public AntiEntropyService(GraphService graphService) {
+        this.graphService = graphService;
+    }
+
+    public DigestSummary getDigest() {
+        StateDigest digest = graphService.getState().getDigest();
+        return new DigestSummary(digest.getRoot(), digest.getBranches());
+    }
+
+    public DigestSummary getDigest(int branch) {
+        if (branch < 0 || branch >= StateDigest.BRANCHES) {
+            throw new IllegalArgumentException("No such branch: " + branch);
+        }
+        StateDigest digest = graphService.getState().getDigest();
+        return new DigestSummary(digest.getBranch(branch), digest.getBuckets(branch));
+    }
+
+    public State getBuckets(Collection<Integer> buckets) {
+        for (int bucket : buckets) {
+            if (bucket < 0 || bucket >= StateDigest.BUCKETS) {
+                throw new IllegalArgumentException("No such bucket: " + bucket);
+            }
+        }
+        return graphService.getState().bucketState(buckets);
+    }
+
+    // Returns the buckets that differed, which is empty when the replicas already agreed.
+    public List<Integer> reconcile(AntiEntropyPeer peer) {
+        List<Integer> differing = differingBuckets(peer);
+        if (!differing.isEmpty()) {
+            // Ours are read before theirs are merged, so we don't send back what we have only just been sent.
+            State ours = getBuckets(differing);
+            graphService.mergeWithRemote(peer.getBuckets(differing));
+            peer.merge(ours);
+        }
+        return differing;
+    }
+
+    private List<Integer> differingBuckets(AntiEntropyPeer peer) {
+        List<Integer> differing = new ArrayList<>();
+        DigestSummary theirs = peer.getDigest();
+        DigestSummary ours = getDigest();
+        if (theirs.getHash() == ours.getHash()) {
+            return differing;
+        }
+        for (int branch = 0; branch < StateDigest.BRANCHES; branch++) {
+            if (theirs.getChildren()[branch] == ours.getChildren()[branch]) {
+                continue;
+            }
+            long[] theirBuckets = peer.getDigest(branch).getChildren();
+            long[] ourBuckets = getDigest(branch).getChildren();
+            for (int i = 0; i < StateDigest.BUCKETS_PER_BRANCH; i++) {
+                if (theirBuckets[i] != ourBuckets[i]) {
+                    differing.add(branch * StateDigest.BUCKETS_PER_BRANCH + i);
+                }
+            }
+        }
+        return differing;
+    }
+}
@@ -0,0 +1,106 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.config.CompactionProperties;
+import dev.kodobo.crdtgraphchallenge.helpers.HybridLogicalClock;
+import dev.kodobo.crdtgraphchallenge.model.CompactionStats;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Purges tombstones once they are causally stable: every replica has had the removal, and everything that could
+    still have been concurrent with it, so no entry that could arrive from now on is old enough to be decided by it.
+
+    That takes a clock from each replica in both directions. A replica's delta carries its clock, and everything that
+    replica wrote before that clock has been merged here once we have merged the delta. The other way, a replica
+    acknowledges the latest clock of ours it has merged, either when it next pulls from us or by our push to it
+    succeeding; until it has, it may not have our removal, and purging it here would leave the element there for good.
+    The earliest of all of those clocks, and our own, bounds what could still arrive and what has certainly been
+    delivered. Removals earlier than that, less the retention, are purged along with the add entries they outdate.
+ */
+@Service
+public class CompactionService {
+    private static final Logger log = LoggerFactory.getLogger(CompactionService.class);
+
+    private final GraphService graphService;
+    private final ConvergeStateService convergeStateService;
+    private final CompactionProperties properties;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong purgedNodeEntries = new AtomicLong();
+    private final AtomicLong purgedEdgeEntries = new AtomicLong();
+
+    public CompactionService(GraphService graphService, ConvergeStateService convergeStateService,
+                             CompactionProperties properties) {
+        this.graphService = graphService;
+        this.convergeStateService = convergeStateService;
+        this.properties = properties;
+        if (properties.isEnabled()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = properties.getInterval().toMillis();
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    log.warn("Compaction failed", e);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    // The timestamp below which removals are stable, or zero while some replica has yet to send us a delta or to
+    // acknowledge one of ours.
+    public long stableBelow() {
+        long stable = graphService.currentTimestamp();
+        for (String replicaId : properties.getReplicas()) {
+            long clock = Math.min(convergeStateService.getPeerClock(replicaId),
+                    convergeStateService.getAckedClock(replicaId));
+            if (clock == 0) {
+                return 0;
+            }
+            stable = Math.min(stable, clock);
+        }
+        return Math.max(0, stable - HybridLogicalClock.fromPhysicalTime(properties.getRetention().toMillis()));
+    }
+
+    public CompactionStats compact() {
+        long below = stableBelow();
+        if (below > 0) {
+            long[] purged = graphService.compact(below);
+            purgedNodeEntries.addAndGet(purged[0]);
+            purgedEdgeEntries.addAndGet(purged[1]);
+            runs.incrementAndGet();
+            if (purged[0] + purged[1] > 0) {
+                log.debug("Purged {} node and {} edge entries", purged[0], purged[1]);
+            }
+        }
+        return getStats();
+    }
+
+    public CompactionStats getStats() {
+        State state = graphService.getState();
+        return new CompactionStats(runs.get(), purgedNodeEntries.get(), purgedEdgeEntries.get(),
+                state.getCompactedBelow(), state.getNodesRemoved().size(), state.getEdgesRemoved().size());
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -1,26 +1,276 @@
 package dev.kodobo.crdtgraphchallenge.service;
 
+import dev.kodobo.crdtgraphchallenge.codec.StateHeader;
+import dev.kodobo.crdtgraphchallenge.codec.StateReader;
+import dev.kodobo.crdtgraphchallenge.config.ReplicaProperties;
+import dev.kodobo.crdtgraphchallenge.metrics.GraphMetrics;
+import dev.kodobo.crdtgraphchallenge.model.Edge;
+import dev.kodobo.crdtgraphchallenge.model.Node;
 import dev.kodobo.crdtgraphchallenge.model.ReadOnlyGraph;
+import dev.kodobo.crdtgraphchallenge.model.ResultPage;
 import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import dev.kodobo.crdtgraphchallenge.model.StateVisitor;
+import dev.kodobo.crdtgraphchallenge.persistence.MappedSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 @Service
 public class ConvergeStateService {
+    private static final int PAGED_SNAPSHOTS = 8;
+
     private final GraphService graphService;
+    private final ReplicaProperties replicaProperties;
+    private final GraphMetrics metrics;
+    // The latest version of each peer's state that we have merged, so the next sync only asks for what came after.
+    private final Map<String, Long> peerVersions = new ConcurrentHashMap<>();
+    // The latest clock each peer sent a delta with. Everything the peer wrote before it has been merged here.
+    private final Map<String, Long> peerClocks = new ConcurrentHashMap<>();
+    // The latest clock of ours each peer has told us it has merged, the other way round: everything we wrote before it
+    // has been merged there.
+    private final Map<String, Long> ackedClocks = new ConcurrentHashMap<>();
+    // Snapshots that clients are paging through, by version, the most recently used last. They share nearly all of
+    // their structure with the current graph, so holding on to a few costs little; a listing whose snapshot has been
+    // let go of has to start again.
+    private final Map<Long, ReadOnlyGraph> pagedSnapshots = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ReadOnlyGraph> eldest) {
+            return size() > PAGED_SNAPSHOTS;
+        }
+    };
 
-    public ConvergeStateService(GraphService graphService) {
+    @Autowired
+    public ConvergeStateService(GraphService graphService, ReplicaProperties replicaProperties, GraphMetrics metrics) {
         this.graphService = graphService;
+        this.replicaProperties = replicaProperties;
+        this.metrics = metrics;
+    }
+
+    public ConvergeStateService(GraphService graphService, ReplicaProperties replicaProperties) {
+        this(graphService, replicaProperties, new GraphMetrics(new SimpleMeterRegistry()));
+    }
+
+    public ConvergeStateService(GraphService graphService) {
+        this(graphService, new ReplicaProperties());
+    }
+
+    public String getReplicaId() {
+        return replicaProperties.getId();
     }
 
     public State getLocalState() {
         return graphService.getState();
     }
 
+    // The result's adjacency list is built here rather than when it's serialised, so that the time it takes is
+    // measured. It's kept on the snapshot, so asking again costs nothing until the graph changes.
     public ReadOnlyGraph getResult() {
+        return metrics.timeMaterialisation(() -> {
+            ReadOnlyGraph graph = graphService.getGraph();
+            graph.getGraph();
+            return graph;
+        });
+    }
+
+    // The current snapshot as it is, for callers that walk it themselves rather than serialise its adjacency list.
+    public ReadOnlyGraph getSnapshot() {
         return graphService.getGraph();
     }
 
+    // Pages through the result in label id order. The cursor names the snapshot the listing started on as well as
+    // where it got to, so every page of one listing comes from the same snapshot, whatever has been written since.
+    public ResultPage getResultPage(String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("The page size must be positive");
+        }
+        ReadOnlyGraph graph;
+        int from;
+        if (cursor == null) {
+            graph = graphService.getGraph();
+            from = 0;
+        } else {
+            long version;
+            try {
+                int separator = cursor.indexOf(':');
+                version = Long.parseLong(cursor.substring(0, separator));
+                from = Integer.parseInt(cursor.substring(separator + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+            }
+            graph = pagedSnapshot(version);
+        }
+        Map<Node, List<Node>> page = new LinkedHashMap<>();
+        int next = graph.forEachNode(from, limit, page::put);
+        if (next < 0) {
+            return new ResultPage(page, null);
+        }
+        retainSnapshot(graph);
+        return new ResultPage(page, graph.getVersion() + ":" + next);
+    }
+
+    private ReadOnlyGraph pagedSnapshot(long version) {
+        ReadOnlyGraph current = graphService.getGraph();
+        if (current.getVersion() == version) {
+            return current;
+        }
+        synchronized (pagedSnapshots) {
+            ReadOnlyGraph graph = pagedSnapshots.get(version);
+            if (graph == null) {
+                throw new CursorExpiredException("The snapshot for cursor version " + version + " is no longer held");
+            }
+            return graph;
+        }
+    }
+
+    private void retainSnapshot(ReadOnlyGraph graph) {
+        synchronized (pagedSnapshots) {
+            pagedSnapshots.put(graph.getVersion(), graph);
+        }
+    }
+
+    // Set while the local state is still being recovered, in which case it can stand in for the result.
+    public MappedSnapshot getRecoveringSnapshot() {
+        return graphService.getRecoveringSnapshot();
+    }
+
     public void merge(State remoteState) {
+        merge("state", remoteState);
+    }
+
+    public StateDelta getDeltaSince(long version) {
+        // Taken first. A write given its timestamp just before, but not yet in the state, misses this delta although
+        // it is earlier than the clock we send, which compaction's retention allows for.
+        long clock = graphService.currentTimestamp();
+        State state = graphService.getState();
+        return new StateDelta(getReplicaId(), state.getVersion(), clock, state.deltaSince(version));
+    }
+
+    // The same, for a peer that tells us who it is and the latest clock of ours it has merged.
+    public StateDelta getDeltaSince(long version, String replicaId, long acked) {
+        acknowledge(replicaId, acked);
+        return getDeltaSince(version);
+    }
+
+    // Records that the replica has merged everything we wrote before the clock, either because it said so or because
+    // a delta we sent it with that clock was merged there.
+    public void acknowledge(String replicaId, long clock) {
+        if (replicaId != null && clock > 0) {
+            ackedClocks.merge(replicaId, clock, Math::max);
+        }
+    }
+
+    // A delta is merged exactly like a full state, so receiving the same delta twice or deltas from several peers in
+    // any order converges in the same way as full state merges do.
+    public void mergeDelta(StateDelta delta) {
+        merge("delta", delta.getState());
+        recordPeer(delta.getReplicaId(), delta.getVersion(), delta.getClock());
+    }
+
+    // States and deltas from several peers, folded into one first so that an element they all changed is only
+    // merged once, and made durable together. A delta's version is recorded for its peer once it has been merged.
+    public void mergeDeltas(String source, Collection<StateDelta> deltas) {
+        State folded;
+        if (deltas.size() == 1) {
+            folded = deltas.iterator().next().getState();
+        } else {
+            folded = new State();
+            StateVisitor folder = folded.asFoldingVisitor();
+            for (StateDelta delta : deltas) {
+                delta.getState().accept(folder);
+            }
+        }
+        merge(source, folded);
+        for (StateDelta delta : deltas) {
+            recordPeer(delta.getReplicaId(), delta.getVersion(), delta.getClock());
+        }
+    }
+
+    // Merges a state or delta entry by entry as it is read. Should the payload turn out to be malformed part way
+    // through, whatever was merged before stays merged, which is harmless as each entry merges on its own, but the
+    // peer's version is only recorded once all of it has been merged.
+    public void mergeStream(StateReader reader, InputStream in) throws IOException {
+        CountingVisitor merger = new CountingVisitor(graphService.getMerger());
+        long start = System.nanoTime();
+        StateHeader header;
+        try {
+            header = reader.read(in, merger);
+            graphService.sync();
+        } finally {
+            metrics.recordMerge("stream", System.nanoTime() - start, merger.count);
+        }
+        recordPeer(header.getReplicaId(), header.getVersion(), header.getClock());
+    }
+
+    private void merge(String source, State remoteState) {
+        long start = System.nanoTime();
         graphService.mergeWithRemote(remoteState);
+        metrics.recordMerge(source, System.nanoTime() - start, remoteState.getNodesAdded().size()
+                + remoteState.getNodesRemoved().size() + remoteState.getEdgesAdded().size()
+                + remoteState.getEdgesRemoved().size());
+    }
+
+    private void recordPeer(String replicaId, long version, long clock) {
+        if (replicaId != null) {
+            peerVersions.merge(replicaId, version, Math::max);
+            peerClocks.merge(replicaId, clock, Math::max);
+            graphService.observe(clock);
+        }
+    }
+
+    public long getPeerVersion(String replicaId) {
+        return peerVersions.getOrDefault(replicaId, 0L);
+    }
+
+    // Zero if the peer has never sent us a delta.
+    public long getPeerClock(String replicaId) {
+        return peerClocks.getOrDefault(replicaId, 0L);
+    }
+
+    // Zero if the peer has never acknowledged any of ours.
+    public long getAckedClock(String replicaId) {
+        return ackedClocks.getOrDefault(replicaId, 0L);
+    }
+
+    // Passes everything on, counting the entries as they go by.
+    private static final class CountingVisitor implements StateVisitor {
+        private final StateVisitor target;
+        private long count;
+
+        private CountingVisitor(StateVisitor target) {
+            this.target = target;
+        }
+
+        @Override
+        public void nodeAdded(Node node) {
+            count++;
+            target.nodeAdded(node);
+        }
+
+        @Override
+        public void nodeRemoved(Node node) {
+            count++;
+            target.nodeRemoved(node);
+        }
+
+        @Override
+        public void edgeAdded(Edge edge) {
+            count++;
+            target.edgeAdded(edge);
+        }
+
+        @Override
+        public void edgeRemoved(Edge edge) {
+            count++;
+            target.edgeRemoved(edge);
+        }
     }
 }
@@ -0,0 +1,10 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+// Thrown for a result cursor whose snapshot has since been let go, so the listing has to be started again.
+public class CursorExpiredException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public CursorExpiredException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+
+// A replica GossipService syncs with, by exchanging deltas and now and then comparing digests.
+public interface GossipPeer extends AntiEntropyPeer {
+    // Tells the peer who we are and the latest clock of its we have merged, which it needs before it can compact.
+    StateDelta getDeltaSince(long version, String replicaId, long acked);
+
+    void mergeDelta(StateDelta delta);
+}
@@ -0,0 +1,266 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.config.GossipProperties;
+import dev.kodobo.crdtgraphchallenge.model.GossipStats;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/*
+    Keeps replicas converging without anyone having to push states between them. Every round, after a jittered
+    interval, a few peers picked at random are synced with: their changes since the last sync are pulled, and ours
+    since the last sync pushed to them. Every so often the states are compared by digest instead (see
+    AntiEntropyService), which repairs whatever the deltas missed.
+
+    The deltas pulled by syncs that finish together are folded together and merged in one go, so they are made durable
+    with a single sync of the journal. A peer that fails is backed off from exponentially, and no more than a fixed
+    number of syncs are ever under way at once, however slow the peers are.
+
+    A peer's versions start again when it restarts. A delta with a version lower than the one asked for gives that
+    away, and its changes are then pulled again from the start; a restarted peer that has already moved past the
+    version we had is caught by the next digest comparison.
+ */
+@Service
+public class GossipService {
+    private static final Logger log = LoggerFactory.getLogger(GossipService.class);
+
+    private final ConvergeStateService convergeStateService;
+    private final AntiEntropyService antiEntropyService;
+    private final GossipProperties properties;
+    private final List<Peer> peers;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final Semaphore inFlight;
+    // Pulled deltas waiting to be merged, and whether a sync is merging them already.
+    private final Queue<StateDelta> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean merging = new AtomicBoolean();
+
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong reconciliations = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong deltas = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+
+    @Autowired
+    public GossipService(ConvergeStateService convergeStateService, AntiEntropyService antiEntropyService,
+                         GossipProperties properties, RestTemplateBuilder restTemplateBuilder) {
+        this(convergeStateService, antiEntropyService, properties,
+                properties.getPeers().stream()
+                        .map(url -> new HttpGossipPeer(restTemplateBuilder
+                                .setConnectTimeout(properties.getTimeout())
+                                .setReadTimeout(properties.getTimeout())
+                                .build(), url))
+                        .collect(Collectors.toList()),
+                Executors.newFixedThreadPool(Math.max(1, properties.getMaxInFlight()), daemon("gossip")));
+    }
+
+    // Syncs run on the given executor. Rounds are only scheduled if gossip is enabled; otherwise they run when
+    // gossip() is called.
+    public GossipService(ConvergeStateService convergeStateService, AntiEntropyService antiEntropyService,
+                         GossipProperties properties, List<? extends GossipPeer> peers, Executor executor) {
+        this.convergeStateService = convergeStateService;
+        this.antiEntropyService = antiEntropyService;
+        this.properties = properties;
+        this.peers = peers.stream().map(Peer::new).collect(Collectors.toList());
+        this.executor = executor;
+        this.inFlight = new Semaphore(properties.getMaxInFlight());
+        if (properties.isEnabled() && !this.peers.isEmpty()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(daemon("gossip-rounds"));
+            scheduleRound();
+        } else {
+            scheduler = null;
+        }
+    }
+
+    // Starts syncs with up to fanout peers, leaving out those being synced with already or backed off from, and
+    // returns how many it started.
+    public int gossip() {
+        rounds.incrementAndGet();
+        long now = System.nanoTime();
+        List<Peer> candidates = new ArrayList<>();
+        for (Peer peer : peers) {
+            if (!peer.busy.get() && now - peer.retryAt >= 0) {
+                candidates.add(peer);
+            }
+        }
+        Collections.shuffle(candidates, ThreadLocalRandom.current());
+        int started = 0;
+        for (Peer peer : candidates) {
+            if (started == properties.getFanout()) {
+                break;
+            }
+            if (!inFlight.tryAcquire()) {
+                skipped.addAndGet(Math.min(candidates.size(), properties.getFanout()) - started);
+                break;
+            }
+            if (!peer.busy.compareAndSet(false, true)) {
+                inFlight.release();
+                continue;
+            }
+            started++;
+            try {
+                executor.execute(() -> {
+                    try {
+                        sync(peer);
+                    } finally {
+                        peer.busy.set(false);
+                        inFlight.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                peer.busy.set(false);
+                inFlight.release();
+                throw e;
+            }
+        }
+        return started;
+    }
+
+    public GossipStats getStats() {
+        return new GossipStats(rounds.get(), syncs.get(), reconciliations.get(), failures.get(), skipped.get(),
+                deltas.get(), merges.get(), properties.getMaxInFlight() - inFlight.availablePermits());
+    }
+
+    private void sync(Peer peer) {
+        try {
+            int reconcileEvery = properties.getReconcileEvery();
+            if (peer.syncs > 0 && reconcileEvery > 0 && peer.syncs % reconcileEvery == 0) {
+                antiEntropyService.reconcile(peer.peer);
+                reconciliations.incrementAndGet();
+            } else {
+                exchangeDeltas(peer);
+            }
+            peer.syncs++;
+            peer.failures = 0;
+            syncs.incrementAndGet();
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            peer.failures++;
+            long backoff = Math.min(properties.getMaxBackoff().toNanos(),
+                    properties.getInterval().toNanos() << Math.min(peer.failures, 30));
+            peer.retryAt = System.nanoTime() + jittered(backoff);
+            log.debug("Gossip with {} failed {} times in a row, backing off for {}ms", peer.peer, peer.failures,
+                    TimeUnit.NANOSECONDS.toMillis(backoff), e);
+        }
+    }
+
+    private void exchangeDeltas(Peer peer) {
+        String replicaId = convergeStateService.getReplicaId();
+        long acked = peer.replicaId == null ? 0 : convergeStateService.getPeerClock(peer.replicaId);
+        StateDelta theirs = peer.peer.getDeltaSince(peer.pulled, replicaId, acked);
+        if (theirs.getVersion() < peer.pulled) {
+            // It has restarted, and may well have lost whatever we pushed to it before, too.
+            theirs = peer.peer.getDeltaSince(0, replicaId, 0);
+            peer.pushed = 0;
+        }
+        peer.replicaId = theirs.getReplicaId();
+        // Ours are read before theirs are merged, so we don't send back what we have only just been sent.
+        StateDelta ours = convergeStateService.getDeltaSince(peer.pushed);
+        pending.add(theirs);
+        deltas.incrementAndGet();
+        mergePending();
+        peer.pulled = theirs.getVersion();
+        peer.peer.mergeDelta(ours);
+        peer.pushed = ours.getVersion();
+        // Only once it has answered, which it does after merging, so what we wrote before the clock is there now.
+        convergeStateService.acknowledge(peer.replicaId, ours.getClock());
+    }
+
+    // Whichever sync gets here first merges everything pulled so far, including what other syncs add while it does.
+    // The others carry on straight away.
+    private void mergePending() {
+        while (!pending.isEmpty() && merging.compareAndSet(false, true)) {
+            try {
+                List<StateDelta> batch = new ArrayList<>();
+                for (StateDelta delta = pending.poll(); delta != null; delta = pending.poll()) {
+                    batch.add(delta);
+                }
+                if (!batch.isEmpty()) {
+                    convergeStateService.mergeDeltas("gossip", batch);
+                    merges.incrementAndGet();
+                }
+            } finally {
+                merging.set(false);
+            }
+        }
+    }
+
+    private void scheduleRound() {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            try {
+                gossip();
+            } catch (RuntimeException e) {
+                log.warn("Gossip round failed", e);
+            } finally {
+                scheduleRound();
+            }
+        }, jittered(properties.getInterval().toNanos()), TimeUnit.NANOSECONDS);
+    }
+
+    private long jittered(long nanos) {
+        double jitter = properties.getJitter();
+        return (long) (nanos * (1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1)));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger threads = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    // What we know of a peer. Only the sync holding busy touches the rest.
+    private static final class Peer {
+        private final GossipPeer peer;
+        private final AtomicBoolean busy = new AtomicBoolean();
+        private volatile long retryAt = System.nanoTime();
+        private String replicaId;
+        private long pulled;
+        private long pushed;
+        private int syncs;
+        private int failures;
+
+        private Peer(GossipPeer peer) {
+            this.peer = peer;
+        }
+    }
+}
@@ -1,51 +1,116 @@
 package dev.kodobo.crdtgraphchallenge.service;
 
+import dev.kodobo.crdtgraphchallenge.config.ReplicaProperties;
 import dev.kodobo.crdtgraphchallenge.helpers.FixedIdGenerator;
+import dev.kodobo.crdtgraphchallenge.helpers.HybridLogicalClock;
+import dev.kodobo.crdtgraphchallenge.helpers.LabelDictionary;
+import dev.kodobo.crdtgraphchallenge.helpers.StripedLock;
 import dev.kodobo.crdtgraphchallenge.model.Edge;
+import dev.kodobo.crdtgraphchallenge.model.GraphBatch;
+import dev.kodobo.crdtgraphchallenge.model.Neighbour;
+import dev.kodobo.crdtgraphchallenge.model.NeighbourhoodOrder;
 import dev.kodobo.crdtgraphchallenge.model.ReadOnlyGraph;
 import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateVisitor;
 import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.persistence.Journal;
+import dev.kodobo.crdtgraphchallenge.persistence.MappedSnapshot;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Service
 public class GraphService {
     private final State localState;
     private final FixedIdGenerator idGenerator = new FixedIdGenerator();
+    // Callers still pass the wall clock time of each operation, which the clock turns into a timestamp that is
+    // unique to this replica and later than anything it has written or merged before.
+    private final HybridLogicalClock clock;
+    // Requests write to the state concurrently. Every write to an element, together with re-resolving that element,
+    // happens under the element's lock, so two writers can only race when they touch the same node or edge.
+    private final StripedLock locks = new StripedLock();
 
-    public GraphService(State localState) {
+    // The output graph is kept up to date by every write rather than being rebuilt on request. Each write that
+    // changes the outcome for an element swaps in a new immutable snapshot derived from the current one, so readers
+    // just pick up whichever snapshot is current without locking, and writers never wait for readers.
+    private final LabelDictionary labels = new LabelDictionary();
+    private final AtomicReference<ReadOnlyGraph> graph = new AtomicReference<>(new ReadOnlyGraph(labels));
+
+    // Every entry put into the local state is also shown to the journal, under the same lock. Public writes only
+    // return once their entries are durable.
+    private final Journal journal;
+    private final StateVisitor merger;
+
+    // When the journal has a checkpoint, the state is recovered in the background and the checkpoint answers the
+    // reads it can in the meantime, which only misses what was written after it was taken. Everything else waits.
+    private volatile MappedSnapshot recovering;
+    private volatile RuntimeException recoveryFailure;
+    private final CountDownLatch recovered = new CountDownLatch(1);
+
+    public GraphService(State localState, ReplicaProperties replicaProperties, Journal journal) {
         this.localState = localState;
+        this.clock = new HybridLogicalClock(replicaProperties.getId());
+        rebuildGraph();
+        this.journal = journal;
+        this.merger = merger(journal);
+        recover();
+    }
+
+    @Autowired
+    public GraphService(State localState, ReplicaProperties replicaProperties, ObjectProvider<Journal> journal) {
+        this(localState, replicaProperties, journal.getIfAvailable(() -> Journal.NONE));
+    }
+
+    public GraphService(State localState, ReplicaProperties replicaProperties) {
+        this(localState, replicaProperties, Journal.NONE);
+    }
+
+    public GraphService(State localState) {
+        this(localState, new ReplicaProperties());
     }
 
     public ReadOnlyGraph getGraph() {
-        List<Node> nodes = unionNodes();
-        List<Edge> edges = unionEdges();
-        Map<Node, List<Node>> graph = new LinkedHashMap<>();
-
-        nodes.forEach(n -> {
-            // Stream through the list of nodes and collect their matching edges to a list
-            // whilst asserting that both nodes must exist for there to be an edge that links them.
-            // This should allow an edge to be added out of sequence by one replica but not to be displayed
-            // by a replica that hasn't received the add node operation yet
-            List<Node> nEdges = edges.stream()
-                    .filter(e -> e.getSourceNodeLabel().equals(n.getLabel()))
-                    .map(e -> getLatestNode(e.getDestinationNodeLabel()))
-                    .filter(nodes::contains)
-                    .collect(Collectors.toList());
-            graph.put(n, nEdges);
-        });
-        return new ReadOnlyGraph(graph);
+        awaitRecovery();
+        return graph.get();
     }
 
     public State getState() {
+        awaitRecovery();
         return localState;
     }
 
     public List<Node> getConnectedNodes(String label) {
-        return getGraph().getConnectedNodes(label);
+        MappedSnapshot snapshot = recovering;
+        return snapshot != null ? snapshot.getConnectedNodes(label) : getGraph().getConnectedNodes(label);
+    }
+
+    public List<Neighbour> getNeighbourhood(String label, int depth, int limit, NeighbourhoodOrder order) {
+        return getGraph().neighbourhood(label, depth, limit, order);
+    }
+
+    public boolean hasNode(String label) {
+        MappedSnapshot snapshot = recovering;
+        return snapshot != null ? snapshot.hasNode(label) : getGraph().hasNode(label);
+    }
+
+    public boolean hasEdge(String source, String destination) {
+        MappedSnapshot snapshot = recovering;
+        return snapshot != null ? snapshot.hasEdge(source, destination) : getGraph().hasEdge(source, destination);
+    }
+
+    // The checkpoint answering reads while the state is recovered, or null once it has been.
+    public MappedSnapshot getRecoveringSnapshot() {
+        return recovering;
     }
 
     // if previously added, the put operation should replace the Node with a new timestamp to indicate
@@ -56,134 +121,400 @@ public class GraphService {
         // were changed to require non-unique contents - in which case we could overload the method and provide a
         // UUID.
         UUID nodeUid = idGenerator.generateId(label);
-        localState.getNodesAdded().put(nodeUid, new Node(nodeUid, label, timestamp));
+        awaitRecovery();
+        long time = clock.tick(timestamp);
+        withLock(label, () -> {
+            Node node = new Node(nodeUid, label, time);
+            localState.putAddedNode(node);
+            journal.nodeAdded(node);
+            refreshNode(label);
+        });
+        journal.sync();
     }
 
+    // Both directions of the pair share one timestamp, as they are the same operation.
     public void addEdgePair(String sourceNodeLabel, String destinationNodeLabel, LocalDateTime timestamp) {
-        addEdge(sourceNodeLabel, destinationNodeLabel, timestamp);
-        addEdge(destinationNodeLabel, sourceNodeLabel, timestamp);
+        awaitRecovery();
+        long time = clock.tick(timestamp);
+        addEdge(sourceNodeLabel, destinationNodeLabel, time);
+        addEdge(destinationNodeLabel, sourceNodeLabel, time);
+        journal.sync();
     }
 
-    private void addEdge(String sourceNodeLabel, String destinationNodeLabel, LocalDateTime timestamp) {
-        // if the edge already exists in the set, we need to remove it first to ensure the values are updated;
-        Edge existing = localState.getAddedEdge(sourceNodeLabel, destinationNodeLabel);
-        if (existing != null) {
-            localState.getEdgesAdded().remove(existing);
-        }
-        localState.getEdgesAdded().add(new Edge(sourceNodeLabel, destinationNodeLabel, timestamp));
+    private void addEdge(String sourceNodeLabel, String destinationNodeLabel, long timestamp) {
+        // if the edge already exists in the set, it is replaced so that the values are updated
+        Edge edge = new Edge(sourceNodeLabel, destinationNodeLabel, timestamp);
+        withLock(edge, () -> {
+            localState.putAddedEdge(edge);
+            journal.edgeAdded(edge);
+            refreshEdge(sourceNodeLabel, destinationNodeLabel);
+        });
     }
 
     public void removeNode(Node node, LocalDateTime timestamp) {
         // As with adding - we put the operation in and ask questions later.
-        localState.getNodesRemoved().put(node.getNodeUuid(), new Node(node.getNodeUuid(), node.getLabel(), timestamp));
+        awaitRecovery();
+        long time = clock.tick(timestamp);
+        withLock(node.getLabel(), () -> {
+            Node removed = new Node(node.getNodeUuid(), node.getLabel(), time);
+            localState.putRemovedNode(removed);
+            journal.nodeRemoved(removed);
+            refreshNode(node.getLabel());
+        });
+        journal.sync();
+    }
+
+    // Applies every write in the batch with a single timestamp. Each entry goes into the state and the journal under
+    // its element's lock as usual, but the graph only moves on once, to a snapshot taking in the whole batch, and the
+    // batch waits for the journal once.
+    public void apply(GraphBatch batch, LocalDateTime timestamp) {
+        awaitRecovery();
+        long time = clock.tick(timestamp);
+        Set<String> nodes = new LinkedHashSet<>();
+        Set<Edge> edges = new LinkedHashSet<>();
+        for (String label : batch.getAddNodes()) {
+            Node node = new Node(idGenerator.generateId(label), label, time);
+            withLock(label, () -> {
+                localState.putAddedNode(node);
+                journal.nodeAdded(node);
+            });
+            nodes.add(label);
+        }
+        for (String label : batch.getRemoveNodes()) {
+            Node node = new Node(idGenerator.generateId(label), label, time);
+            withLock(label, () -> {
+                localState.putRemovedNode(node);
+                journal.nodeRemoved(node);
+            });
+            nodes.add(label);
+        }
+        for (GraphBatch.EdgePair pair : batch.getAddEdgePairs()) {
+            for (Edge edge : edgePair(pair, time)) {
+                withLock(edge, () -> {
+                    localState.putAddedEdge(edge);
+                    journal.edgeAdded(edge);
+                });
+                edges.add(edge);
+            }
+        }
+        for (GraphBatch.EdgePair pair : batch.getRemoveEdgePairs()) {
+            for (Edge edge : edgePair(pair, time)) {
+                withLock(edge, () -> {
+                    localState.putRemovedEdge(edge);
+                    journal.edgeRemoved(edge);
+                });
+                edges.add(edge);
+            }
+        }
+        // Resolved inside the update, so should a write to one of the same elements publish a snapshot in the
+        // meantime, the update runs again against the newer snapshot and the state as it is by then.
+        graph.updateAndGet(g -> {
+            for (String label : nodes) {
+                g = g.withNode(label, resolveNode(label));
+            }
+            for (Edge edge : edges) {
+                String source = edge.getSourceNodeLabel();
+                String destination = edge.getDestinationNodeLabel();
+                g = g.withEdge(source, destination, resolveEdge(source, destination));
+            }
+            return g;
+        });
+        journal.sync();
+    }
+
+    private static List<Edge> edgePair(GraphBatch.EdgePair pair, long timestamp) {
+        return List.of(new Edge(pair.getSource(), pair.getDestination(), timestamp),
+                new Edge(pair.getDestination(), pair.getSource(), timestamp));
     }
 
     public void removeEdgePair(String sourceNodeLabel, String destinationNodeLabel, LocalDateTime timestamp) {
-        removeEdge(sourceNodeLabel, destinationNodeLabel, timestamp);
-        removeEdge(destinationNodeLabel, sourceNodeLabel, timestamp);
+        awaitRecovery();
+        long time = clock.tick(timestamp);
+        removeEdge(sourceNodeLabel, destinationNodeLabel, time);
+        removeEdge(destinationNodeLabel, sourceNodeLabel, time);
+        journal.sync();
     }
 
-    private void removeEdge(String sourceNodeLabel, String destinationNodeLabel, LocalDateTime timestamp) {
-        Edge existing = localState.getRemovedEdge(sourceNodeLabel, destinationNodeLabel);
-        if (existing != null) {
-            localState.getEdgesRemoved().remove(existing);
-        }
-        localState.getEdgesRemoved().add(new Edge(sourceNodeLabel, destinationNodeLabel, timestamp));
+    private void removeEdge(String sourceNodeLabel, String destinationNodeLabel, long timestamp) {
+        Edge edge = new Edge(sourceNodeLabel, destinationNodeLabel, timestamp);
+        withLock(edge, () -> {
+            localState.putRemovedEdge(edge);
+            journal.edgeRemoved(edge);
+            refreshEdge(sourceNodeLabel, destinationNodeLabel);
+        });
     }
 
+    // Each remote element costs one indexed lookup on the local state, so a merge is linear in the size of the
+    // remote state.
+    // Merges running side by side only wait on each other for the elements they have in common.
     public void mergeWithRemote(State remote) {
-        mergeNodes(localState.getNodesAdded(), remote.getNodesAdded());
-        mergeNodes(localState.getNodesRemoved(), remote.getNodesRemoved());
-        mergeEdges(localState.getEdgesAdded(), remote.getEdgesAdded());
-        mergeEdges(localState.getEdgesRemoved(), remote.getEdgesRemoved());
-    }
-
-    private List<Node> unionNodes() {
-        Map<UUID, Node> addSet = localState.getNodesAdded();
-        Map<UUID, Node> removeSet = localState.getNodesRemoved();
-
-        List<Node> nodes = new LinkedList<>();
-        // if the remove set doesn't contain the uuid at all - we consider the node present.
-        nodes.addAll(addSet.entrySet()
-                .stream()
-                .filter(e -> !removeSet.containsKey(e.getKey()))
-                .map(Map.Entry::getValue)
-                .collect(Collectors.toList()));
-        // otherwise, if the entry is in the remove set, we must only add if the time added is more recent.
-        nodes.addAll(addSet.entrySet()
-                .stream()
-                .filter(e -> removeSet.containsKey(e.getKey()))
-                .filter(e -> e.getValue().getTimestamp().isAfter(localState.getRemovedNode(e.getKey()).getTimestamp()))
-                .map(Map.Entry::getValue)
-                .collect(Collectors.toList()));
-        return nodes;
-    }
-
-    private List<Edge> unionEdges() {
-        Set<Edge> addSet = localState.getEdgesAdded();
-        Set<Edge> removeSet = localState.getEdgesRemoved();
-
-        List<Edge> edges = new LinkedList<>();
-        edges.addAll(addSet
-                .stream()
-                .filter(e -> !removeSet.contains(e))
-                .collect(Collectors.toList()));
-        edges.addAll(addSet
-                .stream()
-                .filter(removeSet::contains)
-                .filter(e -> e.getTimestamp().isAfter(localState.getRemovedEdge(e.getSourceNodeLabel(), e.getDestinationNodeLabel()).getTimestamp()))
-                .collect(Collectors.toList()));
-        return edges;
-    }
-
-    // Get the latest entry of a node from either set. This method is used privately to
-    // perform operations on nodes such as add/remove and merge
-    private Node getLatestNode(UUID nodeUid) {
-        Node node = localState.getAddedNode(nodeUid);
-        Node removed = localState.getRemovedNode(nodeUid);
-        if (node != null) {
-            return node.determineLatest(removed);
-        } else {
-            return removed;
-        }
-    }
-
-    private Node getLatestNode(String label) {
-        Node node = localState.getAddedNode(label);
-        if (node != null) {
-            return getLatestNode(node.getNodeUuid());
-        }
-        return null;
-    }
-
-    private Edge getLatestEdge(String source, String destination) {
-        Edge edge = localState.getAddedEdge(source, destination);
-        Edge removed = localState.getRemovedEdge(source, destination);
-        if (edge != null) {
-            return edge.determineLatest(removed);
-        } else {
-            return removed;
+        awaitRecovery();
+        remote.accept(merger);
+        journal.sync();
+    }
+
+    // For merging a remote state as it is being read, without ever holding all of it. Call sync() once done.
+    public StateVisitor getMerger() {
+        awaitRecovery();
+        return merger;
+    }
+
+    // Returns once everything written so far is durable.
+    public void sync() {
+        journal.sync();
+    }
+
+    // Nothing this replica writes from now on will have an earlier timestamp.
+    public long currentTimestamp() {
+        return clock.now(System.currentTimeMillis());
+    }
+
+    // Moves the clock past a timestamp another replica reported, as if we had merged an entry written at it.
+    public void observe(long timestamp) {
+        clock.observe(timestamp);
+    }
+
+    // Purges the remove entries written before the given timestamp, together with the add entries they outdate. The
+    // caller has to make sure every replica has had everything written before it: no entry that could still arrive
+    // is then old enough for one of the purged entries to have decided its outcome, so the graph stays the same
+    // wherever the entries end up. Returns the number of node and edge entries purged.
+    public long[] compact(long below) {
+        awaitRecovery();
+        localState.compactBelow(below);
+        long nodes = 0;
+        long edges = 0;
+        for (Node removed : localState.getNodesRemoved().values()) {
+            if (removed.getTimestamp() < below) {
+                nodes += withLock(removed.getLabel(), () -> compactNode(removed));
+            }
+        }
+        for (Edge removed : localState.getEdgesRemoved()) {
+            if (removed.getTimestamp() < below) {
+                edges += withLock(removed, () -> compactEdge(removed));
+            }
+        }
+        if (nodes + edges > 0) {
+            journal.compacted();
+        }
+        return new long[] {nodes, edges};
+    }
+
+    private int compactNode(Node removed) {
+        if (localState.getRemovedNode(removed.getLabel()) != removed) {
+            return 0;
+        }
+        localState.purgeRemovedNode(removed);
+        Node added = localState.getAddedNode(removed.getLabel());
+        if (added != null && added.getTimestamp() <= removed.getTimestamp()) {
+            localState.purgeAddedNode(added);
+            return 2;
+        }
+        return 1;
+    }
+
+    private int compactEdge(Edge removed) {
+        String source = removed.getSourceNodeLabel();
+        String destination = removed.getDestinationNodeLabel();
+        if (localState.getRemovedEdge(source, destination) != removed) {
+            return 0;
+        }
+        localState.purgeRemovedEdge(removed);
+        Edge added = localState.getAddedEdge(source, destination);
+        if (added != null && added.getTimestamp() <= removed.getTimestamp()) {
+            localState.purgeAddedEdge(added);
+            return 2;
+        }
+        return 1;
+    }
+
+    // Applies each entry it is shown to the local state on a last write wins basis.
+    private StateVisitor merger(Journal journal) {
+        return new StateVisitor() {
+            @Override
+            public void nodeAdded(Node node) {
+                mergeNode(node, localState::getAddedNode, latest -> {
+                    localState.putAddedNode(latest);
+                    journal.nodeAdded(latest);
+                });
+            }
+
+            @Override
+            public void nodeRemoved(Node node) {
+                mergeNode(node, localState::getRemovedNode, latest -> {
+                    localState.putRemovedNode(latest);
+                    journal.nodeRemoved(latest);
+                });
+            }
+
+            @Override
+            public void edgeAdded(Edge edge) {
+                mergeEdge(edge, localState::getAddedEdge, latest -> {
+                    localState.putAddedEdge(latest);
+                    journal.edgeAdded(latest);
+                });
+            }
+
+            @Override
+            public void edgeRemoved(Edge edge) {
+                mergeEdge(edge, localState::getRemovedEdge, latest -> {
+                    localState.putRemovedEdge(latest);
+                    journal.edgeRemoved(latest);
+                });
+            }
+        };
+    }
+
+    // What is recovered is already in the journal, so is merged without being recorded again.
+    private void recover() {
+        MappedSnapshot snapshot = journal.snapshot();
+        if (snapshot == null) {
+            journal.recover(merger(Journal.NONE));
+            recovered.countDown();
+            return;
+        }
+        // Merging the entries would move the clock past them one by one, but deltas are stamped with the clock while
+        // recovery is still under way, so it's moved past the checkpoint's latest straight away. An empty checkpoint
+        // has no latest timestamp.
+        if (snapshot.getMaxTimestamp() > 0) {
+            clock.observe(snapshot.getMaxTimestamp());
         }
+        recovering = snapshot;
+        Thread recovery = new Thread(() -> {
+            try {
+                journal.recover(merger(Journal.NONE));
+                recovering = null;
+            } catch (RuntimeException e) {
+                recoveryFailure = e;
+            } finally {
+                recovered.countDown();
+            }
+        }, "state-recovery");
+        recovery.setDaemon(true);
+        recovery.start();
     }
 
-    private void mergeNodes(Map<UUID, Node> local, Map<UUID, Node> remote) {
-        remote.forEach((k, v) -> {
-            if (local.containsValue(v)) {
-                local.put(k, v.determineLatest(local.get(k)));
-            } else {
-                local.put(k, v);
+    private void awaitRecovery() {
+        if (recovered.getCount() > 0) {
+            try {
+                recovered.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the state to be recovered", e);
+            }
+        }
+        if (recoveryFailure != null) {
+            throw new IllegalStateException("The state could not be recovered", recoveryFailure);
+        }
+    }
+
+    private <T> T withLock(Object key, Supplier<T> write) {
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            return write.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void withLock(Object key, Runnable write) {
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            write.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // An element e is in the set if it is in the add set, and it is not in the remove set with a higher timestamp.
+    // Equal timestamps resolve in favour of the removal.
+    private Node resolveNode(String label) {
+        Node added = localState.getAddedNode(label);
+        if (added == null) {
+            return null;
+        }
+        Node removed = localState.getRemovedNode(added.getNodeUuid());
+        return removed == null || added.getTimestamp() > removed.getTimestamp() ? added : null;
+    }
+
+    private boolean resolveEdge(String source, String destination) {
+        Edge added = localState.getAddedEdge(source, destination);
+        if (added == null) {
+            return false;
+        }
+        Edge removed = localState.getRemovedEdge(source, destination);
+        return removed == null || added.getTimestamp() > removed.getTimestamp();
+    }
+
+    // Both run under the element's lock, so the snapshots for one element are published in the order its writes
+    // happened. Writes to other elements may swap the snapshot in between, in which case the update is simply
+    // re-applied to the newer snapshot.
+    private void refreshNode(String label) {
+        Node latest = resolveNode(label);
+        graph.updateAndGet(g -> g.withNode(label, latest));
+    }
+
+    private void refreshEdge(String source, String destination) {
+        boolean live = resolveEdge(source, destination);
+        graph.updateAndGet(g -> g.withEdge(source, destination, live));
+    }
+
+    private void rebuildGraph() {
+        localState.accept(new StateVisitor() {
+            @Override
+            public void nodeAdded(Node node) {
+                clock.observe(node.getTimestamp());
+                refreshNode(node.getLabel());
+            }
+
+            @Override
+            public void nodeRemoved(Node node) {
+                clock.observe(node.getTimestamp());
+                refreshNode(node.getLabel());
+            }
+
+            @Override
+            public void edgeAdded(Edge edge) {
+                clock.observe(edge.getTimestamp());
+                refreshEdge(edge.getSourceNodeLabel(), edge.getDestinationNodeLabel());
+            }
+
+            @Override
+            public void edgeRemoved(Edge edge) {
+                clock.observe(edge.getTimestamp());
+                refreshEdge(edge.getSourceNodeLabel(), edge.getDestinationNodeLabel());
             }
         });
     }
 
-    private void mergeEdges(Set<Edge> local, Set<Edge> remote) {
-        remote.forEach(e -> {
-            if (local.contains(e)) {
-                Edge latest = getLatestEdge(e.getSourceNodeLabel(), e.getDestinationNodeLabel());
-                local.remove(e);
-                local.add(latest);
-            } else {
-                local.add(e);
+    // Entries older than what has been compacted are dropped, as we have already had them or what outdated them.
+    private void mergeNode(Node remote, Function<UUID, Node> get, Consumer<Node> put) {
+        clock.observe(remote.getTimestamp());
+        if (remote.getTimestamp() < localState.getCompactedBelow()) {
+            return;
+        }
+        withLock(remote.getLabel(), () -> {
+            Node local = get.apply(remote.getNodeUuid());
+            Node latest = remote.determineLatest(local);
+            if (latest != local) {
+                put.accept(latest);
+                refreshNode(latest.getLabel());
+            }
+        });
+    }
+
+    private void mergeEdge(Edge remote, BiFunction<String, String, Edge> get, Consumer<Edge> put) {
+        clock.observe(remote.getTimestamp());
+        if (remote.getTimestamp() < localState.getCompactedBelow()) {
+            return;
+        }
+        withLock(remote, () -> {
+            Edge local = get.apply(remote.getSourceNodeLabel(), remote.getDestinationNodeLabel());
+            Edge latest = remote.determineLatest(local);
+            if (latest != local) {
+                put.accept(latest);
+                refreshEdge(latest.getSourceNodeLabel(), latest.getDestinationNodeLabel());
             }
         });
     }
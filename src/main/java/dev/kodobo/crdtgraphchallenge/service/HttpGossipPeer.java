@@ -0,0 +1,57 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.model.DigestSummary;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+
+// A replica reached through its sync endpoints, at a base URL such as http://replica-b:8080.
+public class HttpGossipPeer implements GossipPeer {
+    private static final String API = "/api/v1/kodobo";
+
+    private final RestTemplate restTemplate;
+    private final String baseUrl;
+
+    public HttpGossipPeer(RestTemplate restTemplate, String baseUrl) {
+        this.restTemplate = restTemplate;
+        this.baseUrl = baseUrl + API;
+    }
+
+    @Override
+    public DigestSummary getDigest() {
+        return restTemplate.getForObject(baseUrl + "/digest", DigestSummary.class);
+    }
+
+    @Override
+    public DigestSummary getDigest(int branch) {
+        return restTemplate.getForObject(baseUrl + "/digest/{branch}", DigestSummary.class, branch);
+    }
+
+    @Override
+    public State getBuckets(List<Integer> buckets) {
+        return restTemplate.postForObject(baseUrl + "/digest/buckets", buckets, State.class);
+    }
+
+    @Override
+    public void merge(State state) {
+        restTemplate.put(baseUrl + "/state", state);
+    }
+
+    @Override
+    public StateDelta getDeltaSince(long version, String replicaId, long acked) {
+        return restTemplate.getForObject(baseUrl + "/state?since={since}&replica={replica}&acked={acked}",
+                StateDelta.class, version, replicaId, acked);
+    }
+
+    @Override
+    public void mergeDelta(StateDelta delta) {
+        restTemplate.put(baseUrl + "/state/delta", delta);
+    }
+
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+}
@@ -0,0 +1,157 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.codec.StateHeader;
+import dev.kodobo.crdtgraphchallenge.codec.StateReader;
+import dev.kodobo.crdtgraphchallenge.config.MergePipelineProperties;
+import dev.kodobo.crdtgraphchallenge.model.MergePipelineStats;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Merges the states peers send us on a single thread. A state is read in full on the thread serving the request and
+    queued; the merging thread takes everything queued so far, folds it into one state and merges that. Merges no
+    longer contend with each other over the state's locks, and an element several peers changed is merged once.
+
+    The queue is bounded. A state that arrives when it's full is turned away straight off, so a peer can back off and
+    send it again later, rather than piling up on the replica until it runs out of memory. Even so every queued state
+    is held in full, where a state merged as it's read never is, so the pipeline is only used when enabled.
+ */
+@Service
+public class MergePipeline {
+    private static final Logger log = LoggerFactory.getLogger(MergePipeline.class);
+
+    private final ConvergeStateService convergeStateService;
+    private final MergePipelineProperties properties;
+    private final BlockingQueue<Submission> queue;
+    private final Thread writer;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    @Autowired
+    public MergePipeline(ConvergeStateService convergeStateService, MergePipelineProperties properties) {
+        this(convergeStateService, properties, properties.isEnabled());
+    }
+
+    // Without the merging thread, states stay queued until mergeBatch() is called.
+    MergePipeline(ConvergeStateService convergeStateService, MergePipelineProperties properties, boolean start) {
+        this.convergeStateService = convergeStateService;
+        this.properties = properties;
+        this.queue = new ArrayBlockingQueue<>(properties.getCapacity());
+        if (start) {
+            writer = new Thread(this::run, "merge-pipeline");
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            writer = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    // Reads a state or delta and queues it to be merged. The future completes once it has been merged and made
+    // durable. Throws RejectedExecutionException, without reading it, if the queue is already full.
+    public CompletableFuture<Void> submit(StateReader reader, InputStream in) throws IOException {
+        if (queue.remainingCapacity() == 0) {
+            throw reject();
+        }
+        State state = new State();
+        StateHeader header = reader.read(in, state.asVisitor());
+        return submit(new StateDelta(header.getReplicaId(), header.getVersion(), header.getClock(), state));
+    }
+
+    public CompletableFuture<Void> submit(StateDelta delta) {
+        Submission submission = new Submission(delta);
+        if (!queue.offer(submission)) {
+            throw reject();
+        }
+        accepted.incrementAndGet();
+        return submission.merged;
+    }
+
+    // Merges everything queued so far, up to the batch size, waiting for something to be queued if need be. Returns
+    // how many states were merged.
+    int mergeBatch() throws InterruptedException {
+        List<Submission> batch = new ArrayList<>();
+        batch.add(queue.take());
+        queue.drainTo(batch, properties.getMaxBatch() - 1);
+        List<StateDelta> deltas = new ArrayList<>(batch.size());
+        for (Submission submission : batch) {
+            deltas.add(submission.delta);
+        }
+        try {
+            convergeStateService.mergeDeltas("pipeline", deltas);
+            batches.incrementAndGet();
+            for (Submission submission : batch) {
+                submission.merged.complete(null);
+            }
+        } catch (Throwable e) {
+            // Errors included, as whoever is waiting on the batch would otherwise wait forever.
+            log.warn("Merging {} queued states failed", batch.size(), e);
+            for (Submission submission : batch) {
+                submission.merged.completeExceptionally(e);
+            }
+        }
+        return batch.size();
+    }
+
+    public MergePipelineStats getStats() {
+        return new MergePipelineStats(accepted.get(), rejected.get(), batches.get(), queue.size(),
+                properties.getCapacity());
+    }
+
+    private RejectedExecutionException reject() {
+        rejected.incrementAndGet();
+        return new RejectedExecutionException("The merge queue is full");
+    }
+
+    // Carries on whatever a batch throws, as nothing else would merge what is queued.
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                mergeBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                log.error("The merge pipeline failed to take a batch", e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (writer != null) {
+            writer.interrupt();
+        }
+        for (Submission submission = queue.poll(); submission != null; submission = queue.poll()) {
+            submission.merged.completeExceptionally(new RejectedExecutionException("The replica is shutting down"));
+        }
+    }
+
+    private static final class Submission {
+        private final StateDelta delta;
+        private final CompletableFuture<Void> merged = new CompletableFuture<>();
+
+        private Submission(StateDelta delta) {
+            this.delta = delta;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.config.QueryCacheProperties;
+import dev.kodobo.crdtgraphchallenge.helpers.QueryCache;
+import dev.kodobo.crdtgraphchallenge.metrics.GraphMetrics;
+import dev.kodobo.crdtgraphchallenge.model.QueryCacheStats;
+import dev.kodobo.crdtgraphchallenge.model.ReadOnlyGraph;
+import dev.kodobo.crdtgraphchallenge.model.RouteSearch;
+import dev.kodobo.crdtgraphchallenge.model.VisitedNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.function.Function;
+
+/*
+    Traversals over the current graph, with their results cached until the graph changes. The cache is keyed by the
+    query and its arguments, and each result is tagged with the version of the snapshot it was computed on. A
+    snapshot's version only moves on when a write or a merge changes the outcome, so results stay cached across
+    writes that made no difference and are dropped as soon as one does.
+
+    Results are shared between callers, so they are handed out read-only.
+ */
+@Service
+public class QueryService {
+    private final GraphService graphService;
+    private final QueryCache<List<Object>, Object> cache;
+    private final GraphMetrics metrics;
+
+    @Autowired
+    public QueryService(GraphService graphService, QueryCacheProperties properties, GraphMetrics metrics) {
+        this.graphService = graphService;
+        this.cache = new QueryCache<>(properties.getMaxWeight(), QueryService::weigh);
+        this.metrics = metrics;
+    }
+
+    public QueryService(GraphService graphService, QueryCacheProperties properties) {
+        this(graphService, properties, new GraphMetrics(new SimpleMeterRegistry()));
+    }
+
+    public QueryService(GraphService graphService) {
+        this(graphService, new QueryCacheProperties());
+    }
+
+    public List<String> findShortestRoute(String root, String dest, RouteSearch search) {
+        return query(List.of("route", root, dest, search),
+                g -> Collections.unmodifiableList(g.findShortestRoute(root, dest, search)));
+    }
+
+    public Set<String> depthFirstSearch(String root) {
+        return query(List.of("depthFirst", root), g -> Collections.unmodifiableSet(g.depthFirstSearch(root)));
+    }
+
+    public Map<String, VisitedNode> breadthFirstSearch(String root) {
+        return query(List.of("breadthFirst", root), g -> Collections.unmodifiableMap(g.breadthFirstSearch(root)));
+    }
+
+    public QueryCacheStats getStats() {
+        return new QueryCacheStats(cache.getHits(), cache.getMisses(), cache.getEvictions(), cache.getInvalidations(),
+                cache.size(), cache.getWeight(), graphService.getGraph().getVersion());
+    }
+
+    // The snapshot is read once, so the result is computed on the same version it is cached under.
+    @SuppressWarnings("unchecked")
+    private <T> T query(List<Object> key, Function<ReadOnlyGraph, T> query) {
+        ReadOnlyGraph graph = graphService.getGraph();
+        return (T) cache.get(key, graph.getVersion(),
+                () -> metrics.timeTraversal((String) key.get(0), () -> query.apply(graph)));
+    }
+
+    private static long weigh(Object result) {
+        if (result instanceof Collection) {
+            return 1 + ((Collection<?>) result).size();
+        }
+        return 1 + ((Map<?, ?>) result).size();
+    }
+}
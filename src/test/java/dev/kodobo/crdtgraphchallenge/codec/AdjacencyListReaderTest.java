@@ -0,0 +1,44 @@
+package dev.kodobo.crdtgraphchallenge.codec;
+
+import dev.kodobo.crdtgraphchallenge.model.GraphBatch;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.groups.Tuple.tuple;
+
+class AdjacencyListReaderTest {
+    @Test
+    public void readsEachLineAsANodeAndItsEdgePairs() throws IOException {
+        List<GraphBatch> batches = new ArrayList<>();
+        long nodes = new AdjacencyListReader().read(
+                new StringReader("node1: node2, node3\n\nnode2:node1\nnode3\n"), batches::add);
+
+        assertThat(nodes).isEqualTo(3);
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0).getAddNodes()).containsExactly("node1", "node2", "node3");
+        assertThat(batches.get(0).getAddEdgePairs())
+                .extracting(GraphBatch.EdgePair::getSource, GraphBatch.EdgePair::getDestination)
+                .containsExactly(tuple("node1", "node2"), tuple("node1", "node3"), tuple("node2", "node1"));
+    }
+
+    @Test
+    public void handsOverABatchWheneverOneFillsUp() throws IOException {
+        List<GraphBatch> batches = new ArrayList<>();
+        new AdjacencyListReader(3).read(new StringReader("a: b, c\nb: a\nc: a\n"), batches::add);
+
+        assertThat(batches).extracting(GraphBatch::size).containsExactly(3, 4);
+    }
+
+    @Test
+    public void rejectsLinesWithoutALabel() {
+        assertThatThrownBy(() -> new AdjacencyListReader().read(new StringReader("a: b\n : a\n"), batch -> { }))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Line 2");
+    }
+}
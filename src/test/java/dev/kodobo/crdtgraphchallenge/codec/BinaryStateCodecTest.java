@@ -0,0 +1,121 @@
+package dev.kodobo.crdtgraphchallenge.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kodobo.crdtgraphchallenge.model.Edge;
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import dev.kodobo.crdtgraphchallenge.service.GraphService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryStateCodecTest {
+    private GraphService graphService;
+    private LocalDateTime now;
+
+    @BeforeEach
+    void setUp() {
+        graphService = new GraphService(new State());
+        now = LocalDateTime.now(Clock.fixed(Instant.EPOCH, ZoneId.systemDefault()));
+        for (int i = 0; i < 50; i++) {
+            graphService.addNode("node-" + i, now.plusSeconds(i));
+        }
+        for (int i = 1; i < 50; i++) {
+            graphService.addEdgePair("node-" + (i / 2), "node-" + i, now.plusMinutes(i));
+        }
+        graphService.removeEdgePair("node-0", "node-1", now.plusHours(1));
+        graphService.removeNode(graphService.getState().getAddedNode("node-49"), now.plusHours(2));
+    }
+
+    @Test
+    public void stateSurvivesARoundTrip() throws IOException {
+        for (boolean compress : new boolean[] {true, false}) {
+            BinaryStateCodec codec = new BinaryStateCodec(compress);
+            State state = graphService.getState();
+
+            State decoded = codec.readState(new ByteArrayInputStream(encode(codec, state)));
+
+            assertThat(decoded).isEqualTo(state);
+            for (Node node : state.getNodesAdded().values()) {
+                Node copy = decoded.getAddedNode(node.getLabel());
+                assertThat(copy.getNodeUuid()).isEqualTo(node.getNodeUuid());
+                assertThat(copy.getTimestamp()).isEqualTo(node.getTimestamp());
+            }
+            for (Edge edge : state.getEdgesRemoved()) {
+                Edge copy = decoded.getRemovedEdge(edge.getSourceNodeLabel(), edge.getDestinationNodeLabel());
+                assertThat(copy.getTimestamp()).isEqualTo(edge.getTimestamp());
+            }
+        }
+    }
+
+    @Test
+    public void edgesWithDifferentTimestampsInEachDirectionAreKept() throws IOException {
+        State state = new State();
+        state.putAddedEdge(new Edge("one", "two", 2));
+        state.putAddedEdge(new Edge("two", "one", 1));
+        BinaryStateCodec codec = new BinaryStateCodec(false);
+
+        State decoded = codec.readState(new ByteArrayInputStream(encode(codec, state)));
+
+        assertThat(decoded.getAddedEdge("one", "two").getTimestamp()).isEqualTo(2);
+        assertThat(decoded.getAddedEdge("two", "one").getTimestamp()).isEqualTo(1);
+    }
+
+    @Test
+    public void deltaKeepsItsReplicaAndVersion() throws IOException {
+        BinaryStateCodec codec = new BinaryStateCodec();
+        StateDelta delta = new StateDelta("replica-a", 42, graphService.getState().deltaSince(10));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(delta, out);
+
+        StateDelta decoded = codec.readDelta(new ByteArrayInputStream(out.toByteArray()));
+
+        assertThat(decoded.getReplicaId()).isEqualTo("replica-a");
+        assertThat(decoded.getVersion()).isEqualTo(42);
+        assertThat(decoded.getState()).isEqualTo(delta.getState());
+    }
+
+    @Test
+    public void isSmallerThanJson() throws IOException {
+        State state = graphService.getState();
+        int json = new ObjectMapper().writeValueAsBytes(state).length;
+
+        assertThat(encode(new BinaryStateCodec(false), state).length).isLessThan(json / 4);
+        assertThat(encode(new BinaryStateCodec(true), state).length).isLessThan(json / 4);
+    }
+
+    @Test
+    public void rejectsPayloadsItDidNotWrite() {
+        BinaryStateCodec codec = new BinaryStateCodec();
+        assertThatThrownBy(() -> codec.readState(new ByteArrayInputStream("{}".getBytes())))
+                .isInstanceOf(IOException.class);
+    }
+
+    // A node record, uncompressed, whose label is a string of 2^31 bytes, then one that refers to label -1.
+    @Test
+    public void rejectsLengthsAndIndicesOutOfRange() {
+        BinaryStateCodec codec = new BinaryStateCodec();
+        byte[] tooLong = {'C', 'R', 'D', 'T', 1, 0, 0, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08};
+        byte[] negative = {'C', 'R', 'D', 'T', 1, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+
+        for (byte[] payload : new byte[][] {tooLong, negative}) {
+            assertThatThrownBy(() -> codec.readState(new ByteArrayInputStream(payload)))
+                    .isInstanceOf(IOException.class);
+        }
+    }
+
+    private byte[] encode(BinaryStateCodec codec, State state) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(state, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,103 @@
+package dev.kodobo.crdtgraphchallenge.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kodobo.crdtgraphchallenge.helpers.HybridLogicalClock;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import dev.kodobo.crdtgraphchallenge.service.GraphService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.*;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JsonStateReaderTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonStateReader reader = new JsonStateReader(objectMapper);
+    private State state;
+
+    @BeforeEach
+    void setUp() {
+        GraphService graphService = new GraphService(new State());
+        LocalDateTime now = LocalDateTime.now(Clock.fixed(Instant.EPOCH, ZoneId.systemDefault()));
+        graphService.addNode("one", now);
+        graphService.addNode("two", now);
+        graphService.addNode("three", now);
+        graphService.addEdgePair("one", "two", now.plusSeconds(1));
+        graphService.removeEdgePair("one", "two", now.plusSeconds(2));
+        graphService.addEdgePair("two", "three", now.plusSeconds(3));
+        graphService.removeNode(graphService.getState().getAddedNode("one"), now.plusSeconds(4));
+        state = graphService.getState();
+    }
+
+    @Test
+    public void readsAState() throws IOException {
+        State read = new State();
+
+        StateHeader header = reader.read(new ByteArrayInputStream(objectMapper.writeValueAsBytes(state)), read.asVisitor());
+
+        assertThat(read).isEqualTo(state);
+        assertThat(read.getRemovedNode("one").getTimestamp()).isEqualTo(state.getRemovedNode("one").getTimestamp());
+        assertThat(header.getReplicaId()).isNull();
+    }
+
+    @Test
+    public void readsADeltaWhicheverOrderItsFieldsComeIn() throws IOException {
+        String json = "{\"state\":" + objectMapper.writeValueAsString(state) + ",\"version\":7,\"replicaId\":\"b\"}";
+        State read = new State();
+
+        StateHeader header = reader.read(new ByteArrayInputStream(json.getBytes()), read.asVisitor());
+
+        assertThat(read).isEqualTo(state);
+        assertThat(header.getReplicaId()).isEqualTo("b");
+        assertThat(header.getVersion()).isEqualTo(7);
+
+        StateHeader serialised = reader.read(
+                new ByteArrayInputStream(objectMapper.writeValueAsBytes(new StateDelta("a", 3, state))), new State().asVisitor());
+        assertThat(serialised.getReplicaId()).isEqualTo("a");
+        assertThat(serialised.getVersion()).isEqualTo(3);
+    }
+
+    // As sent before timestamps were packed hybrid logical clock values.
+    @Test
+    public void readsISOTimestamps() throws IOException {
+        String json = "{\"nodesAdded\": {\"" + state.getAddedNode("two").getNodeUuid() + "\": "
+                + "{\"nodeUuid\": \"" + state.getAddedNode("two").getNodeUuid() + "\", \"label\": \"two\", "
+                + "\"timestamp\": \"2022-01-05T10:15:30.250\"}}, "
+                + "\"edgesRemoved\": [{\"sourceNodeLabel\": \"one\", \"destinationNodeLabel\": \"two\", "
+                + "\"timestamp\": \"2022-01-05T10:15:31\"}]}";
+        State read = new State();
+
+        reader.read(new ByteArrayInputStream(json.getBytes()), read.asVisitor());
+
+        assertThat(HybridLogicalClock.toLocalDateTime(read.getAddedNode("two").getTimestamp()))
+                .isEqualTo(LocalDateTime.of(2022, 1, 5, 10, 15, 30, 250_000_000));
+        assertThat(read.getAddedNode("two").getTimestamp())
+                .isLessThan(read.getRemovedEdge("one", "two").getTimestamp());
+        assertThatThrownBy(() -> reader.read(new ByteArrayInputStream(json.replace("10:15:31", "soon").getBytes()),
+                new State().asVisitor())).isInstanceOf(IOException.class);
+    }
+
+    // Local bookkeeping such as the version and how far the state was compacted stays off the wire.
+    @Test
+    public void onlyTheEntriesAreSerialised() throws IOException {
+        state.compactBelow(1);
+
+        assertThat(objectMapper.readTree(objectMapper.writeValueAsBytes(state)).fieldNames())
+                .toIterable().containsExactlyInAnyOrder("nodesAdded", "nodesRemoved", "edgesAdded", "edgesRemoved");
+    }
+
+    @Test
+    public void rejectsTruncatedInput() throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(state);
+        byte[] truncated = Arrays.copyOf(json, json.length - 10);
+
+        assertThatThrownBy(() -> reader.read(new ByteArrayInputStream(truncated), new State().asVisitor()))
+                .isInstanceOf(IOException.class);
+    }
+}
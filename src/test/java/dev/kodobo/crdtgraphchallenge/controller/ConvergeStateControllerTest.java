@@ -0,0 +1,89 @@
+package dev.kodobo.crdtgraphchallenge.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kodobo.crdtgraphchallenge.config.CompactionProperties;
+import dev.kodobo.crdtgraphchallenge.config.GossipProperties;
+import dev.kodobo.crdtgraphchallenge.config.MergePipelineProperties;
+import dev.kodobo.crdtgraphchallenge.metrics.GraphMetrics;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.service.AntiEntropyService;
+import dev.kodobo.crdtgraphchallenge.service.CompactionService;
+import dev.kodobo.crdtgraphchallenge.service.ConvergeStateService;
+import dev.kodobo.crdtgraphchallenge.service.GossipService;
+import dev.kodobo.crdtgraphchallenge.service.GraphService;
+import dev.kodobo.crdtgraphchallenge.service.MergePipeline;
+import dev.kodobo.crdtgraphchallenge.service.QueryService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+class ConvergeStateControllerTest {
+    private GraphService graphService;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        graphService = new GraphService(new State());
+        graphService.addNode("one", LocalDateTime.now());
+        graphService.addNode("two", LocalDateTime.now());
+        graphService.addEdgePair("one", "two", LocalDateTime.now());
+        ConvergeStateService convergeStateService = new ConvergeStateService(graphService);
+        AntiEntropyService antiEntropyService = new AntiEntropyService(graphService);
+        mockMvc = MockMvcBuilders.standaloneSetup(new ConvergeStateController(convergeStateService,
+                new CompactionService(graphService, convergeStateService, new CompactionProperties()),
+                antiEntropyService, new QueryService(graphService),
+                new GossipService(convergeStateService, antiEntropyService, new GossipProperties(), List.of(),
+                        Runnable::run),
+                new MergePipeline(convergeStateService, new MergePipelineProperties()),
+                new GraphMetrics(new SimpleMeterRegistry()), new ObjectMapper())).build();
+    }
+
+    @Test
+    public void theResultCarriesOneETag() throws Exception {
+        for (MediaType format : List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON)) {
+            MockHttpServletResponse response = mockMvc.perform(get("/api/v1/kodobo/result").accept(format))
+                    .andReturn().getResponse();
+
+            assertThat(response.getStatus()).isEqualTo(200);
+            assertThat(response.getHeaders(HttpHeaders.ETAG)).hasSize(1);
+        }
+    }
+
+    @Test
+    public void anUnchangedResultIsNotSentAgain() throws Exception {
+        for (MediaType format : List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON)) {
+            String etag = mockMvc.perform(get("/api/v1/kodobo/result").accept(format))
+                    .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+            MockHttpServletResponse unchanged = mockMvc.perform(get("/api/v1/kodobo/result").accept(format)
+                    .header(HttpHeaders.IF_NONE_MATCH, etag)).andReturn().getResponse();
+            assertThat(unchanged.getStatus()).isEqualTo(304);
+            assertThat(unchanged.getHeaders(HttpHeaders.ETAG)).containsExactly(etag);
+
+            graphService.addNode("three-" + format.getSubtype(), LocalDateTime.now());
+            MockHttpServletResponse changed = mockMvc.perform(get("/api/v1/kodobo/result").accept(format)
+                    .header(HttpHeaders.IF_NONE_MATCH, etag)).andReturn().getResponse();
+            assertThat(changed.getStatus()).isEqualTo(200);
+            assertThat(changed.getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+        }
+    }
+
+    @Test
+    public void anExpiredCursorIsGone() throws Exception {
+        MockHttpServletResponse response = mockMvc.perform(get("/api/v1/kodobo/result").param("cursor", "-1:1"))
+                .andReturn().getResponse();
+
+        assertThat(response.getStatus()).isEqualTo(410);
+    }
+}
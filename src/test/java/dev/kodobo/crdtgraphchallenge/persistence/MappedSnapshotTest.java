@@ -0,0 +1,132 @@
+package dev.kodobo.crdtgraphchallenge.persistence;
+
+import dev.kodobo.crdtgraphchallenge.helpers.FixedIdGenerator;
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.ReadOnlyGraph;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.service.GraphService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MappedSnapshotTest {
+    private static final List<String> LABELS = List.of("one", "two", "three", "four", "five", "zoë", "Ωmega", "日本");
+
+    private final FixedIdGenerator idGenerator = new FixedIdGenerator();
+    private Path file;
+    private GraphService graphService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.createTempFile("snapshot", ".snapshot");
+        graphService = new GraphService(new State());
+        LocalDateTime now = LocalDateTime.now(Clock.fixed(Instant.EPOCH, ZoneId.systemDefault()));
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            String source = LABELS.get(random.nextInt(LABELS.size()));
+            String destination = LABELS.get(random.nextInt(LABELS.size()));
+            LocalDateTime time = now.plusSeconds(random.nextInt(20));
+            switch (random.nextInt(4)) {
+                case 0:
+                    graphService.addNode(source, time);
+                    break;
+                case 1:
+                    graphService.removeNode(new Node(idGenerator.generateId(source), source, 0), time);
+                    break;
+                case 2:
+                    graphService.addEdgePair(source, destination, time);
+                    break;
+                default:
+                    graphService.removeEdgePair(source, destination, time);
+            }
+        }
+        // An edge to a node that was never added.
+        graphService.addEdgePair("one", "missing", now.plusMinutes(1));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void answersTheSameAsTheGraph() throws IOException {
+        MappedSnapshot.write(graphService.getState(), file);
+        MappedSnapshot snapshot = MappedSnapshot.open(file);
+        ReadOnlyGraph graph = graphService.getGraph();
+
+        for (String source : LABELS) {
+            assertThat(snapshot.hasNode(source)).as(source).isEqualTo(graph.hasNode(source));
+            for (String destination : LABELS) {
+                assertThat(snapshot.hasEdge(source, destination)).as(source + " -> " + destination)
+                        .isEqualTo(graph.hasEdge(source, destination));
+            }
+            if (graph.hasNode(source)) {
+                assertThat(snapshot.getConnectedNodes(source))
+                        .containsExactlyInAnyOrderElementsOf(graph.getConnectedNodes(source));
+            } else {
+                assertThatThrownBy(() -> snapshot.getConnectedNodes(source)).isInstanceOf(RuntimeException.class);
+            }
+        }
+        assertThat(snapshot.hasNode("missing")).isFalse();
+        assertThat(snapshot.hasNode("absent")).isFalse();
+
+        Map<Node, List<Node>> nodes = new LinkedHashMap<>();
+        snapshot.forEachNode(nodes::put);
+        assertThat(nodes.keySet()).containsExactlyInAnyOrderElementsOf(graph.getGraph().keySet());
+    }
+
+    @Test
+    public void holdsTheWholeState() throws IOException {
+        State state = graphService.getState();
+        MappedSnapshot.write(state, file);
+
+        State read = new State();
+        MappedSnapshot snapshot = MappedSnapshot.open(file);
+        snapshot.accept(read.asVisitor());
+
+        assertThat(read).isEqualTo(state);
+        for (Node node : state.getNodesRemoved().values()) {
+            assertThat(read.getRemovedNode(node.getLabel()).getTimestamp()).isEqualTo(node.getTimestamp());
+        }
+        long latest = state.getEdgesAdded().stream().mapToLong(edge -> edge.getTimestamp()).max().orElseThrow();
+        assertThat(snapshot.getMaxTimestamp()).isGreaterThanOrEqualTo(latest);
+    }
+
+    // Larger than one mapping can hold, it would be written but could never be opened, so it isn't written at all.
+    @Test
+    public void refusesToWriteMoreThanOneMappingHolds() throws IOException {
+        MappedSnapshot.write(graphService.getState(), file);
+        long size = Files.size(file);
+        Files.delete(file);
+
+        assertThatThrownBy(() -> MappedSnapshot.write(graphService.getState(), file, size - 1))
+                .isInstanceOf(IOException.class);
+        assertThat(file).doesNotExist();
+
+        MappedSnapshot.write(graphService.getState(), file, size);
+        assertThat(Files.size(file)).isEqualTo(size);
+    }
+
+    @Test
+    public void rejectsATruncatedFile() throws IOException {
+        MappedSnapshot.write(graphService.getState(), file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertThatThrownBy(() -> MappedSnapshot.open(file)).isInstanceOf(IOException.class);
+    }
+}
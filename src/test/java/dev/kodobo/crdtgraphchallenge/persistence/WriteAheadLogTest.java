@@ -0,0 +1,249 @@
+package dev.kodobo.crdtgraphchallenge.persistence;
+
+import dev.kodobo.crdtgraphchallenge.config.PersistenceProperties;
+import dev.kodobo.crdtgraphchallenge.config.ReplicaProperties;
+import dev.kodobo.crdtgraphchallenge.helpers.HybridLogicalClock;
+import dev.kodobo.crdtgraphchallenge.model.Edge;
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateVisitor;
+import dev.kodobo.crdtgraphchallenge.service.GraphService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteAheadLogTest {
+    private Path directory;
+    private LocalDateTime now;
+    private final List<WriteAheadLog> logs = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("wal-test");
+        now = LocalDateTime.now(Clock.fixed(Instant.EPOCH, ZoneId.systemDefault()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        logs.forEach(WriteAheadLog::close);
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void acknowledgedWritesSurviveARestart() {
+        GraphService before = start();
+        writeSomeGraph(before);
+
+        // Not closed, as if the process had died.
+        GraphService after = start();
+
+        assertThat(after.getState()).isEqualTo(before.getState());
+        assertThat(after.getGraph().getGraph()).isEqualTo(before.getGraph().getGraph());
+        assertThat(after.getGraph().hasEdge("one", "three")).isFalse();
+        assertThat(after.getGraph().hasNode("two")).isFalse();
+        assertThat(after.getState().getAddedNode("one").getTimestamp())
+                .isEqualTo(before.getState().getAddedNode("one").getTimestamp());
+    }
+
+    @Test
+    public void mergedEntriesAreLogged() {
+        GraphService before = start();
+        GraphService remote = new GraphService(new State());
+        writeSomeGraph(remote);
+        before.mergeWithRemote(remote.getState());
+
+        GraphService after = start();
+
+        assertThat(after.getState()).isEqualTo(remote.getState());
+    }
+
+    @Test
+    public void checkpointsReplaceTheLogTheyCover() throws IOException {
+        GraphService before = start();
+        writeSomeGraph(before);
+        logs.get(0).checkpoint();
+        before.addNode("five", now.plusMinutes(5));
+        before.addEdgePair("one", "five", now.plusMinutes(6));
+        logs.get(0).checkpoint();
+        before.removeEdgePair("one", "five", now.plusMinutes(7));
+
+        assertThat(files("checkpoint-")).hasSize(1);
+        assertThat(files("wal-")).hasSize(1);
+
+        GraphService after = start();
+
+        assertThat(after.getState()).isEqualTo(before.getState());
+        assertThat(after.getGraph().hasNode("five")).isTrue();
+        assertThat(after.getGraph().hasEdge("one", "five")).isFalse();
+    }
+
+    @Test
+    public void theCheckpointAnswersReadsUntilTheStateIsRecovered() throws Exception {
+        GraphService before = start();
+        writeSomeGraph(before);
+        // Ahead of the wall clock, as if written by a replica whose clock runs fast.
+        before.addNode("six", LocalDateTime.now().plusDays(1));
+        logs.get(0).checkpoint();
+        before.addNode("five", now.plusMinutes(5));
+
+        CountDownLatch release = new CountDownLatch(1);
+        State state = new State();
+        WriteAheadLog log = open(state);
+        GraphService after = new GraphService(state, new ReplicaProperties(), new Journal() {
+            @Override
+            public MappedSnapshot snapshot() {
+                return log.snapshot();
+            }
+
+            @Override
+            public void recover(StateVisitor visitor) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                log.recover(visitor);
+            }
+
+            @Override
+            public void sync() {
+                log.sync();
+            }
+
+            @Override
+            public void compacted() {
+                log.compacted();
+            }
+
+            @Override
+            public void nodeAdded(Node node) {
+                log.nodeAdded(node);
+            }
+
+            @Override
+            public void nodeRemoved(Node node) {
+                log.nodeRemoved(node);
+            }
+
+            @Override
+            public void edgeAdded(Edge edge) {
+                log.edgeAdded(edge);
+            }
+
+            @Override
+            public void edgeRemoved(Edge edge) {
+                log.edgeRemoved(edge);
+            }
+        });
+
+        assertThat(after.getRecoveringSnapshot()).isNotNull();
+        assertThat(after.hasNode("one")).isTrue();
+        assertThat(after.hasNode("two")).isFalse();
+        assertThat(after.hasEdge("three", "four")).isTrue();
+        assertThat(after.getConnectedNodes("three")).extracting(Node::getLabel).containsExactly("four");
+        // Written after the checkpoint, so only there once recovered.
+        assertThat(after.hasNode("five")).isFalse();
+        // Whereas the clock is past everything in the checkpoint before any of it has been merged.
+        long six = before.getState().getAddedNode("six").getTimestamp();
+        assertThat(HybridLogicalClock.physicalTime(after.currentTimestamp()))
+                .isGreaterThanOrEqualTo(HybridLogicalClock.physicalTime(six));
+
+        release.countDown();
+
+        assertThat(after.getState()).isEqualTo(before.getState());
+        assertThat(after.getRecoveringSnapshot()).isNull();
+        assertThat(after.hasNode("five")).isTrue();
+    }
+
+    // Purged entries are still in the log, so compacting checkpoints straight away rather than leave them to be
+    // replayed, and the watermark to be lost, by a restart before the next scheduled checkpoint.
+    @Test
+    public void compactionSurvivesARestart() {
+        GraphService before = start();
+        writeSomeGraph(before);
+        long below = before.currentTimestamp();
+        assertThat(before.compact(below)).containsExactly(2, 4);
+
+        GraphService after = start();
+
+        assertThat(after.getState()).isEqualTo(before.getState());
+        assertThat(after.getState().getNodesRemoved()).isEmpty();
+        assertThat(after.getState().getCompactedBelow()).isEqualTo(below);
+        after.mergeWithRemote(stale());
+        assertThat(after.getState().getAddedNode("two")).isNull();
+    }
+
+    @Test
+    public void aPartlyWrittenFrameIsIgnored() throws IOException {
+        GraphService before = start();
+        writeSomeGraph(before);
+        Path segment = files("wal-").get(0);
+        Files.write(segment, new byte[] {0, 0, 1, 0, 42, 42}, StandardOpenOption.APPEND);
+
+        GraphService after = start();
+        after.addNode("five", now.plusMinutes(5));
+        GraphService again = start();
+
+        assertThat(after.getState().getNodesAdded()).hasSize(5);
+        assertThat(again.getState()).isEqualTo(after.getState());
+    }
+
+    private GraphService start() {
+        State state = new State();
+        return new GraphService(state, new ReplicaProperties(), open(state));
+    }
+
+    private WriteAheadLog open(State state) {
+        PersistenceProperties properties = new PersistenceProperties();
+        properties.setDirectory(directory);
+        WriteAheadLog log = new WriteAheadLog(state, properties);
+        logs.add(log);
+        return log;
+    }
+
+    private void writeSomeGraph(GraphService graphService) {
+        graphService.addNode("one", now);
+        graphService.addNode("two", now);
+        graphService.addNode("three", now);
+        graphService.addNode("four", now);
+        graphService.addEdgePair("one", "two", now.plusSeconds(1));
+        graphService.addEdgePair("one", "three", now.plusSeconds(1));
+        graphService.addEdgePair("three", "four", now.plusSeconds(1));
+        graphService.removeEdgePair("one", "three", now.plusSeconds(2));
+        Node two = graphService.getState().getAddedNode("two");
+        graphService.removeNode(two, now.plusSeconds(3));
+    }
+
+    // The entries a replica that hasn't compacted yet still has for what was purged.
+    private State stale() {
+        GraphService stale = new GraphService(new State());
+        writeSomeGraph(stale);
+        State state = new State();
+        state.putAddedNode(stale.getState().getAddedNode("two"));
+        return state;
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).collect(Collectors.toList());
+        }
+    }
+}
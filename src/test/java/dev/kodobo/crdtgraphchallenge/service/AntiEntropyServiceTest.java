@@ -0,0 +1,118 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.config.ReplicaProperties;
+import dev.kodobo.crdtgraphchallenge.model.DigestSummary;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AntiEntropyServiceTest {
+    private GraphService local;
+    private AntiEntropyService localAntiEntropy;
+    private GraphService remote;
+    private AntiEntropyService remoteAntiEntropy;
+    private LocalDateTime now;
+
+    @BeforeEach
+    void setUp() {
+        local = new GraphService(new State(), replica("local"));
+        localAntiEntropy = new AntiEntropyService(local);
+        remote = new GraphService(new State(), replica("remote"));
+        remoteAntiEntropy = new AntiEntropyService(remote);
+
+        now = LocalDateTime.now();
+        for (int i = 0; i < 500; i++) {
+            local.addNode("node-" + i, now);
+        }
+        for (int i = 1; i < 500; i++) {
+            local.addEdgePair("node-" + (i - 1), "node-" + i, now);
+        }
+        remote.mergeWithRemote(local.getState());
+    }
+
+    @Test
+    public void replicasHoldingTheSameEntriesHaveTheSameDigest() {
+        assertThat(remoteAntiEntropy.getDigest().getHash()).isEqualTo(localAntiEntropy.getDigest().getHash());
+        assertThat(remoteAntiEntropy.getDigest().getChildren()).isEqualTo(localAntiEntropy.getDigest().getChildren());
+
+        AtomicInteger requests = new AtomicInteger();
+        assertThat(localAntiEntropy.reconcile(peer(remoteAntiEntropy, remote, requests))).isEmpty();
+        assertThat(requests).hasValue(1);
+    }
+
+    @Test
+    public void onlyTheBucketsThatDifferAreExchanged() {
+        local.addNode("only-local", now.plusSeconds(1));
+        remote.addNode("only-remote", now.plusSeconds(1));
+        remote.removeEdgePair("node-10", "node-11", now.plusSeconds(1));
+
+        List<Integer> differing = localAntiEntropy.reconcile(peer(remoteAntiEntropy, remote, new AtomicInteger()));
+
+        // Two nodes and both directions of an edge, which could at most share buckets.
+        assertThat(differing).hasSizeBetween(1, 4);
+        assertThat(local.getState()).isEqualTo(remote.getState());
+        assertThat(localAntiEntropy.getDigest().getHash()).isEqualTo(remoteAntiEntropy.getDigest().getHash());
+        assertThat(local.hasNode("only-remote")).isTrue();
+        assertThat(remote.hasNode("only-local")).isTrue();
+        assertThat(local.hasEdge("node-10", "node-11")).isFalse();
+        assertThat(localAntiEntropy.reconcile(peer(remoteAntiEntropy, remote, new AtomicInteger()))).isEmpty();
+    }
+
+    @Test
+    public void theDigestIsKeptUpToDateAsTheStateChanges() {
+        // Asked for up front, so everything below has to be applied to it incrementally.
+        localAntiEntropy.getDigest();
+        local.removeNode(local.getState().getAddedNode("node-3"), now.plusSeconds(1));
+        local.addNode("node-3", now.plusSeconds(2));
+        local.removeEdgePair("node-20", "node-21", now.plusSeconds(1));
+        local.compact(Long.MAX_VALUE);
+
+        State rebuilt = new State();
+        local.getState().accept(rebuilt.asVisitor());
+        DigestSummary expected = new DigestSummary(rebuilt.getDigest().getRoot(), rebuilt.getDigest().getBranches());
+
+        assertThat(localAntiEntropy.getDigest().getHash()).isEqualTo(expected.getHash());
+        assertThat(localAntiEntropy.getDigest().getChildren()).isEqualTo(expected.getChildren());
+    }
+
+    // Stands in for the remote replica's endpoints, counting the requests made to it.
+    private static AntiEntropyPeer peer(AntiEntropyService antiEntropy, GraphService graph, AtomicInteger requests) {
+        return new AntiEntropyPeer() {
+            @Override
+            public DigestSummary getDigest() {
+                requests.incrementAndGet();
+                return antiEntropy.getDigest();
+            }
+
+            @Override
+            public DigestSummary getDigest(int branch) {
+                requests.incrementAndGet();
+                return antiEntropy.getDigest(branch);
+            }
+
+            @Override
+            public State getBuckets(List<Integer> buckets) {
+                requests.incrementAndGet();
+                return antiEntropy.getBuckets(buckets);
+            }
+
+            @Override
+            public void merge(State state) {
+                requests.incrementAndGet();
+                graph.mergeWithRemote(state);
+            }
+        };
+    }
+
+    private static ReplicaProperties replica(String id) {
+        ReplicaProperties properties = new ReplicaProperties();
+        properties.setId(id);
+        return properties;
+    }
+}
@@ -0,0 +1,154 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.config.CompactionProperties;
+import dev.kodobo.crdtgraphchallenge.config.ReplicaProperties;
+import dev.kodobo.crdtgraphchallenge.model.CompactionStats;
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.*;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactionServiceTest {
+    private GraphService local;
+    private ConvergeStateService localSync;
+    private GraphService remote;
+    private ConvergeStateService remoteSync;
+    private CompactionService compactionService;
+    private LocalDateTime start;
+
+    @BeforeEach
+    void setUp() {
+        local = new GraphService(new State(), replica("local"));
+        localSync = new ConvergeStateService(local, replica("local"));
+        remote = new GraphService(new State(), replica("remote"));
+        remoteSync = new ConvergeStateService(remote, replica("remote"));
+        CompactionProperties properties = new CompactionProperties();
+        properties.setRetention(Duration.ofMinutes(10));
+        properties.setReplicas(List.of("remote"));
+        compactionService = new CompactionService(local, localSync, properties);
+
+        // Long enough ago that everything written now is past the retention by the time the replicas have synced.
+        start = LocalDateTime.now(Clock.offset(Clock.systemUTC(), Duration.ofHours(-1)));
+        for (String label : List.of("one", "two", "three", "four")) {
+            local.addNode(label, start);
+        }
+        local.addEdgePair("one", "two", start);
+        local.addEdgePair("two", "three", start);
+        local.addEdgePair("three", "four", start);
+        local.removeNode(local.getState().getAddedNode("four"), start.plusSeconds(1));
+        local.removeEdgePair("one", "two", start.plusSeconds(1));
+        local.removeEdgePair("two", "three", start.plusSeconds(1));
+        local.addEdgePair("two", "three", start.plusSeconds(2));
+    }
+
+    @Test
+    public void nothingIsPurgedUntilEveryReplicaHasSynced() {
+        assertThat(compactionService.stableBelow()).isZero();
+
+        CompactionStats stats = compactionService.compact();
+
+        assertThat(stats.getPurgedNodeEntries() + stats.getPurgedEdgeEntries()).isZero();
+        assertThat(stats.getNodeTombstones()).isEqualTo(1);
+        assertThat(stats.getEdgeTombstones()).isEqualTo(4);
+    }
+
+    // The remote keeps sending us its deltas but has yet to take ours, so it doesn't have the removals, and purging
+    // them here would leave the elements on the remote for good.
+    @Test
+    public void nothingIsPurgedUntilEveryReplicaHasTheRemovals() {
+        localSync.mergeDelta(remoteSync.getDeltaSince(0));
+        remote.addNode("five", LocalDateTime.now(Clock.systemUTC()));
+        localSync.mergeDelta(remoteSync.getDeltaSince(localSync.getPeerVersion("remote")));
+
+        assertThat(compactionService.stableBelow()).isZero();
+        assertThat(compactionService.compact().getPurgedNodeEntries()).isZero();
+
+        // Pulling them isn't enough either, until the remote says it has merged them.
+        remoteSync.mergeDelta(localSync.getDeltaSince(0, "remote", 0));
+        assertThat(compactionService.compact().getPurgedNodeEntries()).isZero();
+
+        localSync.getDeltaSince(0, "remote", remoteSync.getPeerClock("local"));
+        CompactionStats stats = compactionService.compact();
+
+        assertThat(stats.getPurgedNodeEntries()).isEqualTo(2);
+        assertThat(remote.getGraph().hasNode("four")).isFalse();
+        assertThat(remote.getGraph().getGraph()).isEqualTo(local.getGraph().getGraph());
+    }
+
+    @Test
+    public void stableTombstonesArePurgedWithoutChangingTheGraph() {
+        Map<Node, List<Node>> before = local.getGraph().getGraph();
+        sync();
+
+        CompactionStats stats = compactionService.compact();
+
+        // "four" and both directions of one-two go along with their adds, two-three is live again so only loses
+        // its tombstones.
+        assertThat(stats.getPurgedNodeEntries()).isEqualTo(2);
+        assertThat(stats.getPurgedEdgeEntries()).isEqualTo(6);
+        assertThat(stats.getNodeTombstones()).isZero();
+        assertThat(stats.getEdgeTombstones()).isZero();
+        assertThat(local.getState().getAddedNode("four")).isNull();
+        assertThat(local.getState().getAddedEdge("one", "two")).isNull();
+        assertThat(local.getGraph().getGraph()).isEqualTo(before);
+        assertThat(local.getGraph().hasEdge("two", "three")).isTrue();
+        assertThat(local.getState().deltaSince(0).getNodesRemoved()).isEmpty();
+    }
+
+    // A replica that still has the old entries can't bring back what was purged, whether it sends them as a full
+    // state or relays them to us from a replica that hasn't compacted yet.
+    @Test
+    public void purgedElementsStayPurged() {
+        sync();
+        compactionService.compact();
+
+        State stale = new State();
+        stale.putAddedNode(remote.getState().getAddedNode("four"));
+        stale.putAddedEdge(remote.getState().getAddedEdge("one", "two"));
+        local.mergeWithRemote(stale);
+        local.mergeWithRemote(remote.getState());
+
+        assertThat(local.getGraph().hasNode("four")).isFalse();
+        assertThat(local.getGraph().hasEdge("one", "two")).isFalse();
+        assertThat(local.getState().getAddedNode("four")).isNull();
+
+        // Whereas anything written since goes through as normal.
+        remote.addNode("four", LocalDateTime.now(Clock.systemUTC()));
+        localSync.mergeDelta(remoteSync.getDeltaSince(localSync.getPeerVersion("remote")));
+        assertThat(local.getGraph().hasNode("four")).isTrue();
+    }
+
+    @Test
+    public void tombstonesWithinTheRetentionAreKept() {
+        sync();
+        local.removeEdgePair("two", "three", LocalDateTime.now(Clock.systemUTC()));
+        localSync.mergeDelta(remoteSync.getDeltaSince(localSync.getPeerVersion("remote")));
+
+        CompactionStats stats = compactionService.compact();
+
+        assertThat(stats.getEdgeTombstones()).isEqualTo(2);
+        assertThat(local.getGraph().hasEdge("two", "three")).isFalse();
+    }
+
+    // Both ways, so the remote has everything we wrote and we have the remote's clock. The remote takes ours the
+    // way gossip pushes it, which acknowledges it once the remote has merged it.
+    private void sync() {
+        StateDelta ours = localSync.getDeltaSince(0);
+        remoteSync.mergeDelta(ours);
+        localSync.acknowledge("remote", ours.getClock());
+        localSync.mergeDelta(remoteSync.getDeltaSince(localSync.getPeerVersion("remote")));
+    }
+
+    private ReplicaProperties replica(String id) {
+        ReplicaProperties properties = new ReplicaProperties();
+        properties.setId(id);
+        return properties;
+    }
+}
@@ -1,17 +1,31 @@
 package dev.kodobo.crdtgraphchallenge.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.kodobo.crdtgraphchallenge.codec.BinaryStateCodec;
+import dev.kodobo.crdtgraphchallenge.codec.JsonStateReader;
+import dev.kodobo.crdtgraphchallenge.config.ReplicaProperties;
+import dev.kodobo.crdtgraphchallenge.metrics.GraphMetrics;
+import dev.kodobo.crdtgraphchallenge.metrics.StateSizeMetrics;
+import dev.kodobo.crdtgraphchallenge.model.Edge;
 import dev.kodobo.crdtgraphchallenge.model.Node;
 import dev.kodobo.crdtgraphchallenge.model.ReadOnlyGraph;
+import dev.kodobo.crdtgraphchallenge.model.ResultPage;
 import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.time.*;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class ConvergeStateServiceTest {
     private ConvergeStateService convergeStateService;
@@ -65,6 +79,41 @@ class ConvergeStateServiceTest {
         assertThat(result.hasEdge("one", "four")).isTrue();
     }
 
+    @Test
+    public void mergeKeepsLatestRemoteEdgeOperation() {
+        GraphService replica = instantiateReplica();
+        LocalDateTime offsetOne = LocalDateTime.now(Clock.offset(clock, Duration.ofMinutes(1)));
+
+        graphService.removeEdgePair("one", "two", offsetOne);
+        replica.removeEdgePair("one", "two", offsetOne);
+        replica.addEdgePair("one", "two", offsetOne.plusSeconds(1));
+        assertThat(convergeStateService.getResult().hasEdge("one", "two")).isFalse();
+
+        convergeStateService.merge(replica.getState());
+
+        assertThat(convergeStateService.getResult().hasEdge("one", "two")).isTrue();
+        assertThat(localState.getAddedEdge("one", "two").getTimestamp())
+                .isEqualTo(replica.getState().getAddedEdge("one", "two").getTimestamp());
+    }
+
+    @Test
+    public void writesAtTheSameWallClockTimeResolveTheSameOnEveryReplica() {
+        GraphService replica = instantiateReplica();
+        LocalDateTime offsetOne = LocalDateTime.now(Clock.offset(clock, Duration.ofMinutes(1)));
+
+        graphService.removeEdgePair("one", "two", offsetOne);
+        replica.removeEdgePair("one", "two", offsetOne.minusMinutes(1));
+        replica.addEdgePair("one", "two", offsetOne);
+
+        convergeStateService.merge(replica.getState());
+        replica.mergeWithRemote(localState);
+
+        assertThat(convergeStateService.getResult().hasEdge("one", "two"))
+                .isEqualTo(replica.getGraph().hasEdge("one", "two"));
+        assertThat(localState.getAddedEdge("one", "two").getTimestamp())
+                .isNotEqualTo(localState.getRemovedEdge("one", "two").getTimestamp());
+    }
+
     @Test
     public void canRetrieveResult() {
         Map<String, String[]> expectedEdges = new LinkedHashMap<>();
@@ -186,6 +235,151 @@ class ConvergeStateServiceTest {
                 .containsExactlyInAnyOrder("three", "four");
     }
 
+    /*
+        Deltas are merged in exactly the same way as full states, so receiving them out of sequence, or more than
+        once, must leave us with the same result as the tests above. Each sync only asks a replica for what changed
+        after the version we last received from it.
+     */
+    @Test
+    public void replicaDeltasCanBeReceivedOutOfSequence() {
+        initialiseMergeTest();
+        ConvergeStateService a = new ConvergeStateService(replicaA);
+        ConvergeStateService b = new ConvergeStateService(replicaB);
+        ConvergeStateService c = new ConvergeStateService(replicaC);
+
+        List.of(b, c, a, c, b).forEach(replica -> convergeStateService.mergeDelta(
+                replica.getDeltaSince(convergeStateService.getPeerVersion(replica.getReplicaId()))));
+
+        ReadOnlyGraph result = convergeStateService.getResult();
+        assertThat(result.getGraph().keySet())
+                .extracting(Node::getLabel)
+                .containsExactlyInAnyOrder("two", "three", "four", "five");
+        assertThat(result.getConnectedNodes("three"))
+                .extracting(Node::getLabel)
+                .containsExactlyInAnyOrder("two", "five");
+        assertThat(result.getConnectedNodes("five"))
+                .extracting(Node::getLabel)
+                .containsExactlyInAnyOrder("three", "four");
+
+        // Once in sync, a replica only has its new writes to send.
+        State upToDate = c.getDeltaSince(convergeStateService.getPeerVersion(c.getReplicaId())).getState();
+        assertThat(upToDate.getNodesAdded()).isEmpty();
+        assertThat(upToDate.getEdgesRemoved()).isEmpty();
+
+        replicaC.addNode("six", LocalDateTime.now(Clock.offset(clock, Duration.ofMinutes(20))));
+        State delta = c.getDeltaSince(convergeStateService.getPeerVersion(c.getReplicaId())).getState();
+        assertThat(delta.getNodesAdded().values()).extracting(Node::getLabel).containsExactly("six");
+        assertThat(delta.getNodesRemoved()).isEmpty();
+        assertThat(delta.getEdgesAdded()).isEmpty();
+        assertThat(delta.getEdgesRemoved()).isEmpty();
+    }
+
+    // Deltas read straight off the wire, in either format, converge the same as deserialised ones.
+    @Test
+    public void streamedDeltasConvergeInEitherFormat() throws IOException {
+        initialiseMergeTest();
+        ConvergeStateService a = new ConvergeStateService(replicaA);
+        ConvergeStateService b = new ConvergeStateService(replicaB);
+        ConvergeStateService c = new ConvergeStateService(replicaC);
+        ObjectMapper objectMapper = new ObjectMapper();
+        BinaryStateCodec codec = new BinaryStateCodec();
+
+        for (ConvergeStateService replica : List.of(b, c, a)) {
+            StateDelta delta = replica.getDeltaSince(convergeStateService.getPeerVersion(replica.getReplicaId()));
+            ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            codec.write(delta, binary);
+            convergeStateService.mergeStream(codec, new ByteArrayInputStream(binary.toByteArray()));
+            convergeStateService.mergeStream(new JsonStateReader(objectMapper),
+                    new ByteArrayInputStream(objectMapper.writeValueAsBytes(delta)));
+            assertThat(convergeStateService.getPeerVersion(replica.getReplicaId())).isEqualTo(delta.getVersion());
+        }
+
+        ReadOnlyGraph result = convergeStateService.getResult();
+        assertThat(result.getGraph().keySet())
+                .extracting(Node::getLabel)
+                .containsExactlyInAnyOrder("two", "three", "four", "five");
+        assertThat(result.getConnectedNodes("five"))
+                .extracting(Node::getLabel)
+                .containsExactlyInAnyOrder("three", "four");
+    }
+
+    @Test
+    public void pagesComeFromTheSnapshotTheListingStartedOn() {
+        ResultPage first = convergeStateService.getResultPage(null, 2);
+        assertThat(first.getGraph()).hasSize(2);
+        assertThat(first.getNext()).isNotNull();
+
+        graphService.addNode("four", LocalDateTime.now(clock));
+        graphService.removeNode(graphService.getGraph().getNode("three"),
+                LocalDateTime.now(Clock.offset(clock, Duration.ofMinutes(1))));
+
+        ResultPage second = convergeStateService.getResultPage(first.getNext(), 2);
+        assertThat(second.getNext()).isNull();
+        Map<Node, List<Node>> listed = new LinkedHashMap<>(first.getGraph());
+        listed.putAll(second.getGraph());
+        assertThat(listed.keySet())
+                .extracting(Node::getLabel)
+                .containsExactly("one", "two", "three");
+        assertThat(listed.get(new Node(null, "one", 0)))
+                .extracting(Node::getLabel)
+                .containsExactlyInAnyOrder("two", "three");
+
+        assertThat(convergeStateService.getResultPage(null, 10).getGraph().keySet())
+                .extracting(Node::getLabel)
+                .containsExactly("one", "two", "four");
+    }
+
+    @Test
+    public void aCursorForASnapshotNoLongerHeldHasExpired() {
+        String next = convergeStateService.getResultPage(null, 2).getNext();
+        long version = Long.parseLong(next.substring(0, next.indexOf(':')));
+
+        assertThatThrownBy(() -> convergeStateService.getResultPage((version + 1) + ":2", 2))
+                .isInstanceOf(CursorExpiredException.class);
+    }
+
+    @Test
+    public void mergesAndStateSizesAreMeasured() throws IOException {
+        initialiseMergeTest();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ConvergeStateService measured = new ConvergeStateService(graphService, new ReplicaProperties(),
+                new GraphMetrics(registry));
+        new StateSizeMetrics(graphService).bindTo(registry);
+
+        measured.merge(replicaB.getState());
+        StateDelta delta = new ConvergeStateService(replicaC).getDeltaSince(0);
+        measured.mergeStream(new BinaryStateCodec(), new ByteArrayInputStream(binary(delta)));
+        measured.getResult();
+
+        assertThat(registry.get("crdt.merge").tag("source", "state").timer().count()).isEqualTo(1);
+        assertThat(registry.get("crdt.merge").tag("source", "stream").timer().count()).isEqualTo(1);
+        State c = replicaC.getState();
+        assertThat(registry.get("crdt.merge.elements").tag("source", "stream").summary().totalAmount()).isEqualTo(
+                c.getNodesAdded().size() + c.getNodesRemoved().size() + c.getEdgesAdded().size() + c.getEdgesRemoved().size());
+        assertThat(registry.get("crdt.graph.materialize").timer().count()).isEqualTo(1);
+
+        State state = graphService.getState();
+        ReadOnlyGraph graph = graphService.getGraph();
+        assertThat(registry.get("crdt.state.nodes").tag("state", "live").gauge().value()).isEqualTo(graph.size());
+        assertThat(registry.get("crdt.state.nodes").tag("state", "tombstoned").gauge().value())
+                .isEqualTo(state.getNodesRemoved().size());
+        assertThat(registry.get("crdt.state.edges").tag("state", "tombstoned").gauge().value())
+                .isEqualTo(state.getEdgesRemoved().size());
+        long liveEdges = state.getEdgesAdded().stream()
+                .filter(e -> {
+                    Edge removed = state.getRemovedEdge(e.getSourceNodeLabel(), e.getDestinationNodeLabel());
+                    return removed == null || e.getTimestamp() > removed.getTimestamp();
+                })
+                .count();
+        assertThat(registry.get("crdt.state.edges").tag("state", "live").gauge().value()).isEqualTo(liveEdges);
+    }
+
+    private static byte[] binary(StateDelta delta) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryStateCodec().write(delta, out);
+        return out.toByteArray();
+    }
+
     /*
     source: https://github.com/pfrazee/crdt_notes
 
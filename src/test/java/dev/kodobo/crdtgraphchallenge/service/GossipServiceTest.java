@@ -0,0 +1,216 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.config.GossipProperties;
+import dev.kodobo.crdtgraphchallenge.config.ReplicaProperties;
+import dev.kodobo.crdtgraphchallenge.model.DigestSummary;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GossipServiceTest {
+    private GossipProperties properties;
+    private LocalDateTime now;
+
+    @BeforeEach
+    void setUp() {
+        properties = new GossipProperties();
+        properties.setFanout(2);
+        properties.setReconcileEvery(0);
+        properties.setInterval(Duration.ofMinutes(1));
+        now = LocalDateTime.now();
+    }
+
+    @Test
+    public void replicasConvergeThroughGossip() {
+        Replica a = new Replica("a");
+        Replica b = new Replica("b");
+        Replica c = new Replica("c");
+        for (int i = 0; i < 20; i++) {
+            a.graph.addNode("a-" + i, now);
+            b.graph.addNode("b-" + i, now);
+            c.graph.addNode("c-" + i, now);
+        }
+        c.graph.addEdgePair("c-0", "c-1", now);
+        GossipService gossipA = gossip(a, new LocalPeer(b), new LocalPeer(c));
+        GossipService gossipB = gossip(b, new LocalPeer(a), new LocalPeer(c));
+
+        assertThat(gossipA.gossip()).isEqualTo(2);
+        assertThat(gossipB.gossip()).isEqualTo(2);
+
+        assertThat(a.graph.getState()).isEqualTo(b.graph.getState());
+        assertThat(c.graph.getState()).isEqualTo(b.graph.getState());
+        assertThat(a.graph.getGraph().size()).isEqualTo(60);
+        assertThat(a.graph.hasEdge("c-0", "c-1")).isTrue();
+        assertThat(gossipA.getStats().getSyncs()).isEqualTo(2);
+        assertThat(a.sync.getAckedClock("b")).isPositive();
+
+        // Only what changed since is exchanged from then on.
+        LocalPeer toB = new LocalPeer(b);
+        GossipService again = gossip(a, toB);
+        again.gossip();
+        assertThat(toB.pulledEntries).isEqualTo(60 + 2);
+        b.graph.addNode("late", now.plusSeconds(1));
+        again.gossip();
+        assertThat(a.graph.hasNode("late")).isTrue();
+        assertThat(toB.pulledEntries).isEqualTo(60 + 2 + 1);
+    }
+
+    @Test
+    public void failingPeersAreBackedOffFrom() {
+        Replica a = new Replica("a");
+        LocalPeer broken = new LocalPeer(new Replica("b"));
+        broken.failing = true;
+        GossipService gossip = gossip(a, broken);
+
+        assertThat(gossip.gossip()).isEqualTo(1);
+        assertThat(gossip.gossip()).isZero();
+        assertThat(gossip.getStats().getFailures()).isEqualTo(1);
+        assertThat(gossip.getStats().getSyncs()).isZero();
+    }
+
+    @Test
+    public void inFlightSyncsAreBounded() {
+        properties.setMaxInFlight(1);
+        Replica a = new Replica("a");
+        List<Runnable> held = new ArrayList<>();
+        GossipService gossip = new GossipService(a.sync, a.antiEntropy, properties,
+                List.of(new LocalPeer(new Replica("b")), new LocalPeer(new Replica("c"))), held::add);
+
+        assertThat(gossip.gossip()).isEqualTo(1);
+        assertThat(gossip.gossip()).isZero();
+        assertThat(gossip.getStats().getInFlight()).isEqualTo(1);
+        assertThat(gossip.getStats().getSkipped()).isEqualTo(2);
+
+        held.remove(0).run();
+        assertThat(gossip.getStats().getInFlight()).isZero();
+        assertThat(gossip.gossip()).isEqualTo(1);
+    }
+
+    @Test
+    public void deltasArePulledAgainAfterAPeerRestarts() {
+        Replica a = new Replica("a");
+        Replica b = new Replica("b");
+        for (int i = 0; i < 10; i++) {
+            b.graph.addNode("before-" + i, now);
+        }
+        LocalPeer peer = new LocalPeer(b);
+        GossipService gossip = gossip(a, peer);
+        gossip.gossip();
+        assertThat(a.graph.getGraph().size()).isEqualTo(10);
+
+        // The same replica started again, which has lost what it had, and counts its versions from the start.
+        peer.replica = new Replica("b");
+        peer.replica.graph.addNode("after", now.plusSeconds(1));
+        gossip.gossip();
+
+        assertThat(a.graph.hasNode("after")).isTrue();
+        assertThat(peer.replica.graph.getGraph().size()).isEqualTo(11);
+    }
+
+    @Test
+    public void digestsRepairWhatDeltasMissed() {
+        properties.setReconcileEvery(2);
+        Replica a = new Replica("a");
+        LocalPeer peer = new LocalPeer(new Replica("b"));
+        peer.replica.graph.addNode("before-0", now);
+        peer.replica.graph.addNode("before-1", now);
+        GossipService gossip = gossip(a, peer);
+        gossip.gossip();
+
+        // Restarted, and already past the version we had from it by the time we ask, so the deltas can't tell.
+        peer.replica = new Replica("b");
+        for (int i = 0; i < 5; i++) {
+            peer.replica.graph.addNode("after-" + i, now.plusSeconds(1));
+        }
+        gossip.gossip();
+        assertThat(a.graph.hasNode("after-0")).isFalse();
+
+        gossip.gossip();
+        assertThat(gossip.getStats().getReconciliations()).isEqualTo(1);
+        assertThat(a.graph.getState()).isEqualTo(peer.replica.graph.getState());
+        assertThat(a.graph.getGraph().size()).isEqualTo(7);
+    }
+
+    private GossipService gossip(Replica replica, GossipPeer... peers) {
+        return new GossipService(replica.sync, replica.antiEntropy, properties, List.of(peers), Runnable::run);
+    }
+
+    private static final class Replica {
+        private final GraphService graph;
+        private final ConvergeStateService sync;
+        private final AntiEntropyService antiEntropy;
+
+        private Replica(String id) {
+            ReplicaProperties properties = new ReplicaProperties();
+            properties.setId(id);
+            graph = new GraphService(new State(), properties);
+            sync = new ConvergeStateService(graph, properties);
+            antiEntropy = new AntiEntropyService(graph);
+        }
+    }
+
+    // Stands in for another replica's endpoints.
+    private static final class LocalPeer implements GossipPeer {
+        private Replica replica;
+        private boolean failing;
+        private long pulledEntries;
+
+        private LocalPeer(Replica replica) {
+            this.replica = replica;
+        }
+
+        @Override
+        public StateDelta getDeltaSince(long version, String replicaId, long acked) {
+            check();
+            StateDelta delta = replica.sync.getDeltaSince(version, replicaId, acked);
+            State state = delta.getState();
+            pulledEntries += state.getNodesAdded().size() + state.getNodesRemoved().size()
+                    + state.getEdgesAdded().size() + state.getEdgesRemoved().size();
+            return delta;
+        }
+
+        @Override
+        public void mergeDelta(StateDelta delta) {
+            check();
+            replica.sync.mergeDelta(delta);
+        }
+
+        @Override
+        public DigestSummary getDigest() {
+            check();
+            return replica.antiEntropy.getDigest();
+        }
+
+        @Override
+        public DigestSummary getDigest(int branch) {
+            check();
+            return replica.antiEntropy.getDigest(branch);
+        }
+
+        @Override
+        public State getBuckets(List<Integer> buckets) {
+            check();
+            return replica.antiEntropy.getBuckets(buckets);
+        }
+
+        @Override
+        public void merge(State state) {
+            check();
+            replica.graph.mergeWithRemote(state);
+        }
+
+        private void check() {
+            if (failing) {
+                throw new IllegalStateException("Connection refused");
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.model.Node;
+import dev.kodobo.crdtgraphchallenge.model.ReadOnlyGraph;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GraphServiceConcurrencyTest {
+    private static final int REPLICAS = 16;
+    private static final int LABELS = 200;
+    private static final int OPERATIONS = 2_000;
+    private static final int THREADS = 8;
+
+    private final LocalDateTime start = LocalDateTime.of(2022, 1, 1, 0, 0);
+    private List<State> replicaStates;
+
+    /*
+        Each replica performs its own random mix of adds and removals over a shared set of labels, so that the
+        replicas conflict with each other on most elements. Because merges are resolved element by element on a
+        last write wins basis, merging them all into one replica from many threads at once, in any order and any
+        number of times, has to end up with exactly the graph we get from merging them one after another.
+     */
+    @BeforeEach
+    void setUp() {
+        Random random = new Random(42);
+        replicaStates = new ArrayList<>();
+        for (int r = 0; r < REPLICAS; r++) {
+            GraphService replica = new GraphService(new State());
+            for (int i = 0; i < OPERATIONS; i++) {
+                String source = "node" + random.nextInt(LABELS);
+                String destination = "node" + random.nextInt(LABELS);
+                LocalDateTime timestamp = start.plusSeconds(random.nextInt(1_000_000));
+                switch (random.nextInt(4)) {
+                    case 0: replica.addNode(source, timestamp); break;
+                    case 1: replica.addEdgePair(source, destination, timestamp); break;
+                    case 2: replica.removeEdgePair(source, destination, timestamp); break;
+                    default:
+                        Node node = replica.getState().getAddedNode(source);
+                        if (node != null) {
+                            replica.removeNode(node, timestamp);
+                        }
+                }
+            }
+            replicaStates.add(replica.getState());
+        }
+    }
+
+    @Test
+    public void concurrentMergesConvergeToSequentialResult() throws Exception {
+        GraphService expected = new GraphService(new State());
+        replicaStates.forEach(expected::mergeWithRemote);
+
+        GraphService shared = new GraphService(new State());
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 2);
+        AtomicBoolean merging = new AtomicBoolean(true);
+        try {
+            // Readers keep querying the graph while the merges are in flight, none of which should fail.
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                readers.add(executor.submit(() -> {
+                    while (merging.get()) {
+                        ReadOnlyGraph graph = shared.getGraph();
+                        graph.getGraph().forEach((n, connected) -> graph.depthFirstSearch(n.getLabel()));
+                    }
+                }));
+            }
+
+            List<Callable<Void>> merges = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                List<State> order = new ArrayList<>(replicaStates);
+                Collections.shuffle(order, new Random(t));
+                merges.add(() -> {
+                    order.forEach(shared::mergeWithRemote);
+                    return null;
+                });
+            }
+            for (Future<Void> merge : executor.invokeAll(merges)) {
+                merge.get();
+            }
+            merging.set(false);
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(shared.getState()).isEqualTo(expected.getState());
+        assertThat(adjacencyOf(shared.getGraph())).isEqualTo(adjacencyOf(expected.getGraph()));
+    }
+
+    @Test
+    public void concurrentLocalWritesAreAllApplied() throws Exception {
+        GraphService shared = new GraphService(new State());
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Callable<Void>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                String prefix = "t" + t + "-";
+                writers.add(() -> {
+                    for (int i = 0; i < LABELS; i++) {
+                        shared.addNode(prefix + i, start);
+                        shared.addNode("hub", start);
+                        shared.addEdgePair("hub", prefix + i, start.plusSeconds(1));
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> writer : executor.invokeAll(writers)) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        ReadOnlyGraph graph = shared.getGraph();
+        assertThat(graph.getGraph()).hasSize(THREADS * LABELS + 1);
+        assertThat(graph.getConnectedNodes("hub")).hasSize(THREADS * LABELS);
+    }
+
+    private Map<String, Set<String>> adjacencyOf(ReadOnlyGraph graph) {
+        Map<String, Set<String>> adjacency = new HashMap<>();
+        graph.getGraph().forEach((n, connected) -> adjacency.put(
+                n.getLabel(),
+                connected.stream().map(Node::getLabel).collect(Collectors.toSet())));
+        return adjacency;
+    }
+}
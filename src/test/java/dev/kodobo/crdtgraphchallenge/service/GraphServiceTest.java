@@ -1,20 +1,30 @@
 package dev.kodobo.crdtgraphchallenge.service;
 
+import dev.kodobo.crdtgraphchallenge.codec.AdjacencyListReader;
 import dev.kodobo.crdtgraphchallenge.model.Edge;
+import dev.kodobo.crdtgraphchallenge.model.GraphBatch;
+import dev.kodobo.crdtgraphchallenge.model.Neighbour;
+import dev.kodobo.crdtgraphchallenge.model.NeighbourhoodOrder;
 import dev.kodobo.crdtgraphchallenge.model.Node;
 import dev.kodobo.crdtgraphchallenge.model.ReadOnlyGraph;
+import dev.kodobo.crdtgraphchallenge.model.RouteSearch;
 import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.VisitedNode;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.groups.Tuple.tuple;
@@ -129,7 +139,7 @@ class GraphServiceTest {
         graphService.removeNode(added, LocalDateTime.now(clock));
         boolean result = graphService.getGraph().hasNode(testRemoveNode);
 
-        assertThat(added.getTimestamp()).isBefore(state.getRemovedNode(testRemoveNode).getTimestamp());
+        assertThat(added.getTimestamp()).isLessThan(state.getRemovedNode(testRemoveNode).getTimestamp());
         assertThat(result).isFalse();
     }
 
@@ -149,14 +159,33 @@ class GraphServiceTest {
         graphService.removeEdgePair(added.getSourceNodeLabel(), added.getDestinationNodeLabel(), LocalDateTime.now(clock));
 
         boolean result = graphService.getGraph().hasEdge(source, destination);
-        LocalDateTime edgeAddedAt = added.getTimestamp();
-        LocalDateTime edgeRemovedAt = state.getRemovedEdge(source, destination).getTimestamp();
-        // Graph favours removal - so we need to assert that the time added was either equal or before removal
-        // to account for both eventualities.
-        assertThat(edgeAddedAt).isBeforeOrEqualTo(edgeRemovedAt);
+        long edgeAddedAt = added.getTimestamp();
+        long edgeRemovedAt = state.getRemovedEdge(source, destination).getTimestamp();
+        // The clock never issues the same timestamp twice, so a later removal is always strictly after the add
+        // even when the wall clock hasn't moved on in between.
+        assertThat(edgeAddedAt).isLessThan(edgeRemovedAt);
         assertThat(result).isFalse();
     }
 
+    // A remote entry with the same timestamp as ours is the same write, or a harmless collision of replica tags, and
+    // ours is kept either way.
+    @Test
+    public void mergingATiedEntryKeepsTheLocalOne() {
+        graphService.addNode("source", LocalDateTime.now(clock));
+        graphService.addNode("destination", LocalDateTime.now(clock));
+        graphService.addEdgePair("source", "destination", LocalDateTime.now(clock));
+        Node node = localState.getAddedNode("source");
+        Edge edge = localState.getAddedEdge("source", "destination");
+
+        State remote = new State();
+        remote.putAddedNode(new Node(node.getNodeUuid(), node.getLabel(), node.getTimestamp()));
+        remote.putAddedEdge(new Edge(edge.getSourceNodeLabel(), edge.getDestinationNodeLabel(), edge.getTimestamp()));
+        graphService.mergeWithRemote(remote);
+
+        assertThat(localState.getAddedNode("source")).isSameAs(node);
+        assertThat(localState.getAddedEdge("source", "destination")).isSameAs(edge);
+    }
+
     @Test
     public void canReAddPreviouslyRemovedNode() {
         // Graph favours removals (see: ConvergeStateServiceTest.java:207) so using a fixed clock since this test
@@ -195,12 +224,230 @@ class GraphServiceTest {
         assertThat(rmNode4Edges).extracting("label").doesNotContain("node2");
     }
 
+    @Test
+    public void graphIsASnapshotUnaffectedByLaterWrites() {
+        populateGraphFromFile("testData.txt");
+        ReadOnlyGraph before = graphService.getGraph();
+
+        graphService.removeNode(before.getNode("node2"), LocalDateTime.now(clock));
+        graphService.addNode("node5", LocalDateTime.now(clock));
+        graphService.addEdgePair("node5", "node3", LocalDateTime.now(clock));
+        ReadOnlyGraph after = graphService.getGraph();
+
+        assertThat(before.hasNode("node2")).isTrue();
+        assertThat(before.hasNode("node5")).isFalse();
+        assertThat(before.hasEdge("node1", "node2")).isTrue();
+        assertThat(before.getGraph()).hasSize(4);
+        assertThat(after.hasNode("node2")).isFalse();
+        assertThat(after.hasEdge("node1", "node2")).isFalse();
+        assertThat(after.hasEdge("node3", "node5")).isTrue();
+        assertThat(after.getGraph()).hasSize(4);
+    }
+
     @Test
     public void canFindShortestPathBetweenTwoNodes() {
         populateGraphFromFile("familyTree.txt");
         ReadOnlyGraph graph = graphService.getGraph();
         List<String> shortestRoute = graph.findShortestRoute("June", "Lizzie");
         assertThat(shortestRoute).contains("Lizzie", "Tom", "Paul", "June");
+        assertThat(graph.findShortestRoute("June", "Lizzie", RouteSearch.BIDIRECTIONAL))
+                .containsExactly("Lizzie", "Tom", "Paul", "June");
+    }
+
+    @Test
+    public void bothRouteSearchesFindRoutesOfTheSameLength() {
+        Random random = new Random(1);
+        LocalDateTime now = LocalDateTime.now(clock);
+        for (int i = 0; i < 200; i++) {
+            graphService.addNode("node" + i, now);
+        }
+        for (int i = 0; i < 250; i++) {
+            graphService.addEdgePair("node" + random.nextInt(200), "node" + random.nextInt(200), now);
+        }
+        ReadOnlyGraph graph = graphService.getGraph();
+
+        for (int i = 0; i < 500; i++) {
+            String root = "node" + random.nextInt(200);
+            String dest = "node" + random.nextInt(200);
+            List<String> forward = graph.findShortestRoute(root, dest, RouteSearch.FORWARD);
+            List<String> bidirectional = graph.findShortestRoute(root, dest, RouteSearch.BIDIRECTIONAL);
+
+            assertThat(bidirectional).hasSameSizeAs(forward);
+            assertThat(bidirectional.get(0)).isEqualTo(dest);
+            if (bidirectional.size() > 1) {
+                assertThat(bidirectional.get(bidirectional.size() - 1)).isEqualTo(root);
+            }
+            for (int at = 1; at < bidirectional.size(); at++) {
+                assertThat(graph.hasEdge(bidirectional.get(at), bidirectional.get(at - 1))).isTrue();
+            }
+        }
+        assertThat(graph.findShortestRoute("node1", "node1", RouteSearch.BIDIRECTIONAL)).containsExactly("node1");
+        assertThat(graph.findShortestRoute("node1", "missing", RouteSearch.BIDIRECTIONAL)).containsExactly("missing");
+    }
+
+    @Test
+    public void parallelBreadthFirstSearchFindsTheSameDistances() {
+        Random random = new Random(2);
+        LocalDateTime now = LocalDateTime.now(clock);
+        for (int i = 0; i < 3000; i++) {
+            graphService.addNode("node" + i, now);
+        }
+        for (int i = 0; i < 6000; i++) {
+            graphService.addEdgePair("node" + random.nextInt(3000), "node" + random.nextInt(3000), now);
+        }
+        ReadOnlyGraph graph = graphService.getGraph();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Map<String, VisitedNode> sequential = graph.breadthFirstSearch("node0");
+            Map<String, VisitedNode> parallel = graph.parallelBreadthFirstSearch("node0", pool);
+
+            assertThat(parallel.keySet()).isEqualTo(sequential.keySet());
+            sequential.forEach((label, visited) -> {
+                VisitedNode found = parallel.get(label);
+                assertThat(found.getDistanceFromRoot()).isEqualTo(visited.getDistanceFromRoot());
+                if (found.getDistanceFromRoot() > 0) {
+                    assertThat(graph.hasEdge(found.getParentNode(), label)).isTrue();
+                    assertThat(parallel.get(found.getParentNode()).getDistanceFromRoot())
+                            .isEqualTo(found.getDistanceFromRoot() - 1);
+                }
+            });
+            assertThat(parallel.get("node0").getParentNode()).isEqualTo("Start");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void connectedComponentsFollowAddsAndRemovals() {
+        populateGraphFromFile("familyTree.txt");
+        ReadOnlyGraph graph = graphService.getGraph();
+        assertThat(graph.areConnected("June", "Lizzie")).isTrue();
+        assertThat(graph.getComponentSize("June")).isEqualTo(9);
+
+        graphService.removeNode(graph.getNode("Tom"), LocalDateTime.now(clock));
+        graph = graphService.getGraph();
+        assertThat(graph.areConnected("June", "Lizzie")).isFalse();
+        assertThat(graph.areConnected("June", "Tom")).isFalse();
+        assertThat(graph.getComponentSize("June")).isEqualTo(7);
+        assertThat(graph.getComponentSize("Lizzie")).isEqualTo(1);
+
+        graphService.addEdgePair("Lizzie", "Jules", LocalDateTime.now(clock));
+        graph = graphService.getGraph();
+        assertThat(graph.areConnected("June", "Lizzie")).isTrue();
+        assertThat(graph.getComponentSize("Lizzie")).isEqualTo(8);
+    }
+
+    @Test
+    public void connectedComponentsAgreeWithSearchesThroughRandomWrites() {
+        Random random = new Random(3);
+        LocalDateTime now = LocalDateTime.now(clock);
+        for (int step = 0; step < 2000; step++) {
+            String a = "node" + random.nextInt(40);
+            String b = "node" + random.nextInt(40);
+            now = now.plusNanos(1000);
+            int operation = random.nextInt(10);
+            if (operation < 3) {
+                graphService.addNode(a, now);
+            } else if (operation < 7) {
+                graphService.addEdgePair(a, b, now);
+            } else if (operation < 8 && localState.getAddedNode(a) != null) {
+                graphService.removeNode(localState.getAddedNode(a), now);
+            } else if (operation < 9) {
+                graphService.removeEdgePair(a, b, now);
+            }
+
+            // Only asked now and then, so that several writes in a row get applied to the components as they are.
+            if (step % 7 == 0) {
+                ReadOnlyGraph graph = graphService.getGraph();
+                boolean reachable = graph.hasNode(a) && graph.hasNode(b) && graph.breadthFirstSearch(a).containsKey(b);
+                assertThat(graph.areConnected(a, b)).isEqualTo(reachable);
+                if (graph.hasNode(a)) {
+                    assertThat(graph.getComponentSize(a)).isEqualTo(graph.breadthFirstSearch(a).size());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void traversalsOnlyFollowNodesStillInTheGraph() {
+        populateGraphFromFile("familyTree.txt");
+        Map<String, VisitedNode> distances = graphService.getGraph().breadthFirstSearch("June");
+        assertThat(distances.get("Lizzie").getDistanceFromRoot()).isEqualTo(3);
+        assertThat(distances.get("June").getParentNode()).isEqualTo("Start");
+
+        graphService.removeNode(graphService.getGraph().getNode("Tom"), LocalDateTime.now(clock));
+        ReadOnlyGraph graph = graphService.getGraph();
+
+        assertThat(graph.findShortestRoute("June", "Lizzie")).containsExactly("Lizzie");
+        assertThat(graph.findShortestRoute("June", "Lizzie", RouteSearch.BIDIRECTIONAL)).containsExactly("Lizzie");
+        assertThat(graph.breadthFirstSearch("June")).doesNotContainKeys("Tom", "Lizzie");
+        assertThat(graph.depthFirstSearch("Paul"))
+                .containsExactlyInAnyOrder("Paul", "June", "Fliss", "Mark", "Lee", "Marianne", "Jules");
+    }
+
+    @Test
+    public void neighbourhoodsAreBoundedByDepthAndLimit() {
+        LocalDateTime now = LocalDateTime.now(clock);
+        for (String label : List.of("a", "b", "c", "d", "e", "f")) {
+            graphService.addNode(label, now);
+        }
+        graphService.addEdgePair("a", "d", now);
+        graphService.addEdgePair("a", "c", now);
+        graphService.addEdgePair("a", "b", now);
+        graphService.addEdgePair("b", "e", now);
+        graphService.addEdgePair("e", "f", now);
+
+        assertThat(graphService.getNeighbourhood("a", 2, 10, NeighbourhoodOrder.DISTANCE))
+                .extracting(Neighbour::getLabel, Neighbour::getDistance)
+                .containsExactly(tuple("b", 1), tuple("c", 1), tuple("d", 1), tuple("e", 2));
+        assertThat(graphService.getNeighbourhood("a", 3, 2, NeighbourhoodOrder.DISTANCE))
+                .extracting(Neighbour::getLabel)
+                .containsExactly("b", "c");
+        assertThat(graphService.getNeighbourhood("e", 3, 10, NeighbourhoodOrder.DISTANCE))
+                .extracting(Neighbour::getLabel)
+                .containsExactly("b", "f", "a", "c", "d");
+        assertThat(graphService.getNeighbourhood("e", 3, 10, NeighbourhoodOrder.LABEL))
+                .extracting(Neighbour::getLabel)
+                .containsExactly("a", "b", "c", "d", "f");
+        assertThat(graphService.getNeighbourhood("e", 0, 10, NeighbourhoodOrder.DISTANCE)).isEmpty();
+
+        graphService.removeNode(graphService.getGraph().getNode("b"), now.plusSeconds(1));
+        assertThat(graphService.getNeighbourhood("e", 3, 10, NeighbourhoodOrder.DISTANCE))
+                .extracting(Neighbour::getLabel)
+                .containsExactly("f");
+    }
+
+    @Test
+    public void batchesAreAppliedAsASingleSnapshot() throws IOException {
+        ReadOnlyGraph before = graphService.getGraph();
+        List<GraphBatch> batches = new ArrayList<>();
+        try (Reader in = new InputStreamReader(
+                Objects.requireNonNull(getClass().getClassLoader().getResourceAsStream("familyTree.txt")),
+                StandardCharsets.UTF_8)) {
+            new AdjacencyListReader().read(in, batches::add);
+        }
+        assertThat(batches).hasSize(1);
+        graphService.apply(batches.get(0), LocalDateTime.now(clock));
+        ReadOnlyGraph loaded = graphService.getGraph();
+
+        assertThat(before.size()).isZero();
+        assertThat(loaded.size()).isEqualTo(9);
+        assertThat(loaded.findShortestRoute("June", "Lizzie")).containsExactly("Lizzie", "Tom", "Paul", "June");
+        assertThat(localState.getNodesAdded().values()).extracting(Node::getTimestamp).containsOnly(
+                localState.getAddedNode("June").getTimestamp());
+
+        graphService.apply(new GraphBatch()
+                .removeNode("Tom")
+                .addNode("Zoe")
+                .addEdgePair("Zoe", "Lizzie")
+                .addEdgePair("Zoe", "June")
+                .removeEdgePair("Zoe", "June"), LocalDateTime.now(clock));
+        ReadOnlyGraph updated = graphService.getGraph();
+
+        assertThat(updated.hasNode("Tom")).isFalse();
+        assertThat(updated.hasEdge("Lizzie", "Zoe")).isTrue();
+        assertThat(updated.hasEdge("June", "Zoe")).isFalse();
+        assertThat(updated.areConnected("June", "Lizzie")).isFalse();
     }
 
     @Test
@@ -0,0 +1,153 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.config.MergePipelineProperties;
+import dev.kodobo.crdtgraphchallenge.config.ReplicaProperties;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import dev.kodobo.crdtgraphchallenge.model.StateDelta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MergePipelineTest {
+    private MergePipelineProperties properties;
+    private GraphService local;
+    private ConvergeStateService localSync;
+    private LocalDateTime now;
+
+    @BeforeEach
+    void setUp() {
+        properties = new MergePipelineProperties();
+        local = new GraphService(new State(), replica("local"));
+        localSync = new ConvergeStateService(local, replica("local"));
+        now = LocalDateTime.now();
+    }
+
+    @Test
+    public void queuedStatesAreFoldedIntoOneMerge() throws InterruptedException {
+        List<ConvergeStateService> peers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            GraphService peer = new GraphService(new State(), replica("peer-" + i));
+            peer.addNode("shared", now.plusSeconds(i));
+            peer.addNode("only-" + i, now);
+            peer.addEdgePair("shared", "only-" + i, now);
+            if (i == 2) {
+                peer.removeNode(peer.getGraph().getNode("only-2"), now.plusSeconds(5));
+            }
+            peers.add(new ConvergeStateService(peer, replica("peer-" + i)));
+        }
+
+        MergePipeline pipeline = new MergePipeline(localSync, properties, false);
+        List<CompletableFuture<Void>> merged = new ArrayList<>();
+        for (ConvergeStateService peer : peers) {
+            merged.add(pipeline.submit(peer.getDeltaSince(0)));
+        }
+        assertThat(merged).noneMatch(CompletableFuture::isDone);
+
+        assertThat(pipeline.mergeBatch()).isEqualTo(3);
+
+        assertThat(merged).allMatch(future -> future.isDone() && !future.isCompletedExceptionally());
+        assertThat(pipeline.getStats().getBatches()).isEqualTo(1);
+        GraphService oneByOne = new GraphService(new State(), replica("expected"));
+        for (ConvergeStateService peer : peers) {
+            oneByOne.mergeWithRemote(peer.getLocalState());
+        }
+        assertThat(local.getState()).isEqualTo(oneByOne.getState());
+        assertThat(local.getState().getAddedNode("shared").getTimestamp())
+                .isEqualTo(peers.get(2).getLocalState().getAddedNode("shared").getTimestamp());
+        assertThat(local.hasNode("only-2")).isFalse();
+        assertThat(localSync.getPeerVersion("peer-1")).isEqualTo(peers.get(1).getLocalState().getVersion());
+    }
+
+    @Test
+    public void statesAreTurnedAwayWhileTheQueueIsFull() throws InterruptedException {
+        properties.setCapacity(2);
+        MergePipeline pipeline = new MergePipeline(localSync, properties, false);
+        pipeline.submit(delta("a"));
+        pipeline.submit(delta("b"));
+
+        assertThatThrownBy(() -> pipeline.submit(delta("c"))).isInstanceOf(RejectedExecutionException.class);
+        assertThat(pipeline.getStats().getRejected()).isEqualTo(1);
+        assertThat(pipeline.getStats().getQueued()).isEqualTo(2);
+
+        pipeline.mergeBatch();
+        pipeline.submit(delta("c"));
+        pipeline.mergeBatch();
+        assertThat(local.getGraph().size()).isEqualTo(3);
+    }
+
+    @Test
+    public void concurrentSubmissionsAreAllMerged() throws Exception {
+        MergePipeline pipeline = new MergePipeline(localSync, properties, true);
+        List<CompletableFuture<Void>> merged = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    CompletableFuture<Void> future = pipeline.submit(delta("node-" + thread + "-" + i));
+                    synchronized (merged) {
+                        merged.add(future);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        CompletableFuture.allOf(merged.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        pipeline.close();
+
+        assertThat(local.getGraph().size()).isEqualTo(200);
+        assertThat(pipeline.getStats().getAccepted()).isEqualTo(200);
+        assertThat(pipeline.getStats().getBatches()).isBetween(1L, 200L);
+    }
+
+    // Whatever a merge throws, errors included, fails only the batch it was merging, and the pipeline carries on.
+    @Test
+    public void aFailedBatchDoesNotStopThePipeline() throws Exception {
+        ConvergeStateService failingOnce = new ConvergeStateService(local, replica("local")) {
+            private boolean failed;
+
+            @Override
+            public void mergeDeltas(String source, Collection<StateDelta> deltas) {
+                if (!failed) {
+                    failed = true;
+                    throw new StackOverflowError();
+                }
+                super.mergeDeltas(source, deltas);
+            }
+        };
+        MergePipeline pipeline = new MergePipeline(failingOnce, properties, true);
+
+        CompletableFuture<Void> failed = pipeline.submit(delta("a"));
+        assertThatThrownBy(() -> failed.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(StackOverflowError.class);
+
+        pipeline.submit(delta("b")).get(10, TimeUnit.SECONDS);
+        pipeline.close();
+        assertThat(local.hasNode("b")).isTrue();
+        assertThat(local.hasNode("a")).isFalse();
+    }
+
+    private StateDelta delta(String label) {
+        GraphService peer = new GraphService(new State(), replica("peer-" + label));
+        peer.addNode(label, now);
+        return new ConvergeStateService(peer).getDeltaSince(0);
+    }
+
+    private static ReplicaProperties replica(String id) {
+        ReplicaProperties properties = new ReplicaProperties();
+        properties.setId(id);
+        return properties;
+    }
+}
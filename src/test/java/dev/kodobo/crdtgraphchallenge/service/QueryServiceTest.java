@@ -0,0 +1,87 @@
+package dev.kodobo.crdtgraphchallenge.service;
+
+import dev.kodobo.crdtgraphchallenge.config.QueryCacheProperties;
+import dev.kodobo.crdtgraphchallenge.model.QueryCacheStats;
+import dev.kodobo.crdtgraphchallenge.model.RouteSearch;
+import dev.kodobo.crdtgraphchallenge.model.State;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class QueryServiceTest {
+    private GraphService graphService;
+    private QueryService queryService;
+    private LocalDateTime now;
+
+    @BeforeEach
+    void setUp() {
+        graphService = new GraphService(new State());
+        queryService = new QueryService(graphService);
+        now = LocalDateTime.now();
+        for (String label : List.of("one", "two", "three", "four")) {
+            graphService.addNode(label, now);
+        }
+        graphService.addEdgePair("one", "two", now);
+        graphService.addEdgePair("two", "three", now);
+    }
+
+    @Test
+    public void repeatedQueriesAreAnsweredFromTheCache() {
+        List<String> first = queryService.findShortestRoute("one", "three", RouteSearch.FORWARD);
+        List<String> second = queryService.findShortestRoute("one", "three", RouteSearch.FORWARD);
+        queryService.depthFirstSearch("one");
+        queryService.depthFirstSearch("one");
+
+        assertThat(second).isSameAs(first).containsExactly("three", "two", "one");
+        QueryCacheStats stats = queryService.getStats();
+        assertThat(stats.getHits()).isEqualTo(2);
+        assertThat(stats.getMisses()).isEqualTo(2);
+        assertThat(stats.getEntries()).isEqualTo(2);
+        assertThatThrownBy(() -> queryService.depthFirstSearch("one").add("five"))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void onlyWritesThatChangeTheGraphInvalidateResults() {
+        queryService.findShortestRoute("one", "four", RouteSearch.FORWARD);
+
+        // Already there, and older than what is there, so the graph stays the same.
+        graphService.addEdgePair("one", "two", now.minusSeconds(1));
+        assertThat(queryService.findShortestRoute("one", "four", RouteSearch.FORWARD)).containsExactly("four");
+        assertThat(queryService.getStats().getHits()).isEqualTo(1);
+
+        graphService.addEdgePair("three", "four", now);
+        assertThat(queryService.findShortestRoute("one", "four", RouteSearch.FORWARD))
+                .containsExactly("four", "three", "two", "one");
+        QueryCacheStats stats = queryService.getStats();
+        assertThat(stats.getHits()).isEqualTo(1);
+        assertThat(stats.getMisses()).isEqualTo(2);
+        assertThat(stats.getInvalidations()).isEqualTo(1);
+    }
+
+    @Test
+    public void theLeastRecentlyUsedResultsAreEvictedFirst() {
+        QueryCacheProperties properties = new QueryCacheProperties();
+        // Room for two routes of two nodes each, weighing three apiece.
+        properties.setMaxWeight(6);
+        QueryService small = new QueryService(graphService, properties);
+
+        small.findShortestRoute("one", "two", RouteSearch.FORWARD);
+        small.findShortestRoute("two", "three", RouteSearch.FORWARD);
+        small.findShortestRoute("one", "two", RouteSearch.FORWARD);
+        small.findShortestRoute("three", "two", RouteSearch.FORWARD);
+        small.findShortestRoute("one", "two", RouteSearch.FORWARD);
+        small.findShortestRoute("two", "three", RouteSearch.FORWARD);
+
+        QueryCacheStats stats = small.getStats();
+        assertThat(stats.getHits()).isEqualTo(2);
+        assertThat(stats.getMisses()).isEqualTo(4);
+        assertThat(stats.getEvictions()).isEqualTo(2);
+        assertThat(stats.getWeight()).isEqualTo(6);
+    }
+}